@@ -1,5 +1,26 @@
 package org.example.structural;
 
+import java.nio.DoubleBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
 /*    Паттерн "Адаптер" (Adapter) относится к категории структурных паттернов проектирования и используется для соединения двух несовместимых интерфейсов.
 Адаптер обеспечивает совместимость между классами, которые иначе не могли бы работать вместе из-за несовместимости интерфейсов.
 
@@ -16,6 +37,55 @@ package org.example.structural;
 
 interface SquareRootCalculator {
     double calculateSquareRoot(double number);
+
+    // Пакетный расчет: корни length чисел из numbers, начиная с from, записываются в roots, начиная с rootsFrom.
+    // Реализация по умолчанию вызывает скалярный метод для каждого элемента.
+    default void calculateSquareRoots(double[] numbers, int from, double[] roots, int rootsFrom, int length) {
+        Objects.checkFromIndexSize(from, length, numbers.length);
+        Objects.checkFromIndexSize(rootsFrom, length, roots.length);
+        for (int i = 0; i < length; i++) {
+            roots[rootsFrom + i] = calculateSquareRoot(numbers[from + i]);
+        }
+    }
+
+    default void calculateSquareRoots(double[] numbers, double[] roots) {
+        if (roots.length < numbers.length) {
+            throw new IllegalArgumentException("Output holds " + roots.length + " values, need " + numbers.length);
+        }
+        calculateSquareRoots(numbers, 0, roots, 0, numbers.length);
+    }
+
+    // Обрабатывает все оставшиеся элементы numbers и сдвигает позиции обоих буферов
+    default void calculateSquareRoots(DoubleBuffer numbers, DoubleBuffer roots) {
+        SquareRootBuffers.calculate(this, numbers, roots);
+    }
+}
+
+// Пакетный расчет для буферов через пакетный метод калькулятора на массивах.
+// Буферы на основе массивов передаются в него напрямую, остальные (например, прямые) - порциями через массив.
+class SquareRootBuffers {
+    private static final int CHUNK = 4096;
+
+    static void calculate(SquareRootCalculator calculator, DoubleBuffer numbers, DoubleBuffer roots) {
+        int length = numbers.remaining();
+        if (roots.remaining() < length) {
+            throw new IllegalArgumentException("Output has room for " + roots.remaining() + " values, need " + length);
+        }
+        if (numbers.hasArray() && roots.hasArray()) {
+            calculator.calculateSquareRoots(numbers.array(), numbers.arrayOffset() + numbers.position(),
+                    roots.array(), roots.arrayOffset() + roots.position(), length);
+            numbers.position(numbers.position() + length);
+            roots.position(roots.position() + length);
+            return;
+        }
+        double[] chunk = new double[Math.min(length, CHUNK)];
+        while (numbers.hasRemaining()) {
+            int size = Math.min(chunk.length, numbers.remaining());
+            numbers.get(chunk, 0, size);
+            calculator.calculateSquareRoots(chunk, 0, chunk, 0, size);
+            roots.put(chunk, 0, size);
+        }
+    }
 }
 
 // Адаптируемый класс
@@ -23,11 +93,60 @@ class ThirdPartyCalculator {
     double calculateRoot(double number) {
         return Math.sqrt(number);
     }
+
+    double[] calculateRoots(double[] numbers) {
+        double[] roots = new double[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            roots[i] = calculateRoot(numbers[i]);
+        }
+        return roots;
+    }
+}
+
+// Заглушка медленного стороннего сервиса: каждый вызов, одиночный или пакетный, стоит фиксированную
+// задержку (как сетевой запрос), поэтому пакет из многих чисел обходится почти так же, как одно число
+class SlowThirdPartyCalculator extends ThirdPartyCalculator {
+    private final long delayMillis;
+    private final LongAdder calls = new LongAdder();
+
+    SlowThirdPartyCalculator(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    double calculateRoot(double number) {
+        pause();
+        return Math.sqrt(number);
+    }
+
+    @Override
+    double[] calculateRoots(double[] numbers) {
+        pause();
+        double[] roots = new double[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            roots[i] = Math.sqrt(numbers[i]);
+        }
+        return roots;
+    }
+
+    long getCallCount() {
+        return calls.sum();
+    }
+
+    private void pause() {
+        calls.increment();
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the calculator", e);
+        }
+    }
 }
 
 // Адаптер
 class CalculatorAdapter implements SquareRootCalculator {
-    private ThirdPartyCalculator calculator;
+    private final ThirdPartyCalculator calculator;
 
     public CalculatorAdapter(ThirdPartyCalculator calculator) {
         this.calculator = calculator;
@@ -37,6 +156,302 @@ class CalculatorAdapter implements SquareRootCalculator {
         // Преобразование вызова метода целевого интерфейса в вызов метода адаптируемого класса
         return calculator.calculateRoot(number);
     }
+
+    // Пакетный вариант: один вызов через интерфейс на весь массив, внутри адаптируемый класс вызывается напрямую
+    @Override
+    public void calculateSquareRoots(double[] numbers, int from, double[] roots, int rootsFrom, int length) {
+        Objects.checkFromIndexSize(from, length, numbers.length);
+        Objects.checkFromIndexSize(rootsFrom, length, roots.length);
+        for (int i = 0; i < length; i++) {
+            roots[rootsFrom + i] = calculator.calculateRoot(numbers[from + i]);
+        }
+    }
+}
+
+// Асинхронный адаптер: одиночные запросы возвращают будущие результаты и собираются в пакеты.
+// Пакет отправляется стороннему калькулятору, когда набралось maxBatchSize чисел или истекло окно
+// windowMillis с момента первого запроса в пакете. Одновременно выполняется не больше maxInFlightBatches
+// пакетов, ожидающих ответа запросов не больше maxPendingRequests (лишние сразу отклоняются),
+// а запрос, не получивший ответа за timeoutMillis, завершается TimeoutException.
+class CoalescingCalculatorAdapter implements SquareRootCalculator, AutoCloseable {
+    private final ThirdPartyCalculator calculator;
+    private final int maxBatchSize;
+    private final long windowMillis;
+    private final long timeoutMillis;
+    private final int maxPendingRequests;
+    private final Semaphore pendingPermits;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final Object lock = new Object();
+    private List<Request> batch;
+    private long batchNumber;
+    private boolean closed;
+
+    public CoalescingCalculatorAdapter(ThirdPartyCalculator calculator, int maxBatchSize, long windowMillis,
+                                       int maxInFlightBatches, int maxPendingRequests, long timeoutMillis) {
+        if (maxBatchSize < 1 || maxInFlightBatches < 1 || maxPendingRequests < 1) {
+            throw new IllegalArgumentException("Batch size and limits must be positive");
+        }
+        this.calculator = calculator;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.maxPendingRequests = maxPendingRequests;
+        this.pendingPermits = new Semaphore(maxPendingRequests);
+        this.batch = new ArrayList<>(maxBatchSize);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxInFlightBatches, maxInFlightBatches, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+                    Thread thread = new Thread(task, "calculator-batch-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "calculator-batch-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Double> calculateSquareRootAsync(double number) {
+        if (!pendingPermits.tryAcquire()) {
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("More than " + maxPendingRequests + " requests are pending"));
+        }
+        CompletableFuture<Double> result = new CompletableFuture<>();
+        // Место освобождается, как только клиент получил ответ, ошибку или тайм-аут
+        result.whenComplete((root, error) -> pendingPermits.release());
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        List<Request> full = null;
+        synchronized (lock) {
+            if (closed) {
+                result.completeExceptionally(new RejectedExecutionException("Adapter is closed"));
+                return result;
+            }
+            batch.add(new Request(number, result));
+            if (batch.size() >= maxBatchSize) {
+                full = takeBatch();
+            } else if (batch.size() == 1) {
+                long current = batchNumber;
+                timer.schedule(() -> flush(current), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+        return result;
+    }
+
+    // Синхронный вызов через целевой интерфейс тоже попадает в общий пакет
+    @Override
+    public double calculateSquareRoot(double number) {
+        return calculateSquareRootAsync(number).join();
+    }
+
+    // Массив уже является пакетом: он делится на части без ожидания окна. Части выполняются на том же пуле
+    // с теми же ограничениями: каждое число занимает место среди ожидающих запросов, у части есть тайм-аут.
+    // Если мест не хватает, вызывающий поток дожидается своих ранее отправленных частей.
+    @Override
+    public void calculateSquareRoots(double[] numbers, int from, double[] roots, int rootsFrom, int length) {
+        Objects.checkFromIndexSize(from, length, numbers.length);
+        Objects.checkFromIndexSize(rootsFrom, length, roots.length);
+        int chunkSize = Math.min(maxBatchSize, maxPendingRequests);
+        Deque<Chunk> outstanding = new ArrayDeque<>();
+        for (int offset = 0; offset < length; offset += chunkSize) {
+            double[] part = Arrays.copyOfRange(numbers, from + offset, from + Math.min(offset + chunkSize, length));
+            CompletableFuture<double[]> result;
+            while ((result = submitChunk(part)) == null) {
+                if (outstanding.isEmpty()) {
+                    throw new RejectedExecutionException("More than " + maxPendingRequests + " requests are pending");
+                }
+                outstanding.poll().copyTo(roots, rootsFrom);
+            }
+            outstanding.add(new Chunk(offset, result));
+        }
+        while (!outstanding.isEmpty()) {
+            outstanding.poll().copyTo(roots, rootsFrom);
+        }
+    }
+
+    // Отправляет часть массива одним пакетом; null, если для нее нет свободных мест среди ожидающих запросов
+    private CompletableFuture<double[]> submitChunk(double[] part) {
+        if (!pendingPermits.tryAcquire(part.length)) {
+            return null;
+        }
+        CompletableFuture<double[]> result = new CompletableFuture<>();
+        result.whenComplete((partRoots, error) -> pendingPermits.release(part.length));
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        synchronized (lock) {
+            if (closed) {
+                result.completeExceptionally(new RejectedExecutionException("Adapter is closed"));
+                return result;
+            }
+        }
+        try {
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(calculator.calculateRoots(part));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    // Отправляет накопленные запросы; в ходе закрытия они еще выполняются, новые запросы отклоняются
+    @Override
+    public void close() {
+        List<Request> remaining;
+        synchronized (lock) {
+            closed = true;
+            remaining = takeBatch();
+        }
+        if (!remaining.isEmpty()) {
+            submit(remaining);
+        }
+        timer.shutdownNow();
+        executor.shutdown();
+    }
+
+    // Срабатывает по истечении окна; пакет с другим номером уже был отправлен по размеру
+    private void flush(long expectedBatchNumber) {
+        List<Request> due;
+        synchronized (lock) {
+            if (batchNumber != expectedBatchNumber || batch.isEmpty()) {
+                return;
+            }
+            due = takeBatch();
+        }
+        submit(due);
+    }
+
+    private List<Request> takeBatch() {
+        List<Request> taken = batch;
+        batch = new ArrayList<>(maxBatchSize);
+        batchNumber++;
+        return taken;
+    }
+
+    private void submit(List<Request> requests) {
+        try {
+            executor.execute(() -> process(requests));
+        } catch (RejectedExecutionException e) {
+            requests.forEach(request -> request.result.completeExceptionally(e));
+        }
+    }
+
+    private void process(List<Request> requests) {
+        // Запросы, уже завершенные по тайм-ауту, стороннему калькулятору не передаются
+        List<Request> live = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            if (!request.result.isDone()) {
+                live.add(request);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+        double[] numbers = new double[live.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = live.get(i).number;
+        }
+        try {
+            double[] roots = calculator.calculateRoots(numbers);
+            for (int i = 0; i < roots.length; i++) {
+                live.get(i).result.complete(roots[i]);
+            }
+        } catch (RuntimeException e) {
+            live.forEach(request -> request.result.completeExceptionally(e));
+        }
+    }
+
+    // Отправленная часть массива и ее смещение от начала обрабатываемого диапазона
+    private static class Chunk {
+        private final int offset;
+        private final CompletableFuture<double[]> result;
+
+        Chunk(int offset, CompletableFuture<double[]> result) {
+            this.offset = offset;
+            this.result = result;
+        }
+
+        void copyTo(double[] roots, int rootsFrom) {
+            double[] part = result.join();
+            System.arraycopy(part, 0, roots, rootsFrom + offset, part.length);
+        }
+    }
+
+    private static class Request {
+        private final double number;
+        private final CompletableFuture<Double> result;
+
+        Request(double number, CompletableFuture<Double> result) {
+            this.number = number;
+            this.result = result;
+        }
+    }
+}
+
+// Сравнение пропускной способности при медленном стороннем калькуляторе: отдельный вызов на каждый запрос
+// на пуле потоков против объединения запросов в пакеты при том же числе одновременных вызовов
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.CoalescingAdapterBenchmark" -Dexec.args="2000 2"
+class CoalescingAdapterBenchmark {
+    private static final int IN_FLIGHT = 8;
+    private static final int BATCH_SIZE = 64;
+
+    public static void main(String[] args) {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long delayMillis = args.length > 1 ? Long.parseLong(args[1]) : 2;
+        double[] numbers = new double[requests];
+        Random random = new Random(42);
+        for (int i = 0; i < requests; i++) {
+            numbers[i] = random.nextDouble() * 1_000_000;
+        }
+
+        SlowThirdPartyCalculator perCall = new SlowThirdPartyCalculator(delayMillis);
+        SquareRootCalculator adapter = new CalculatorAdapter(perCall);
+        ExecutorService pool = Executors.newFixedThreadPool(IN_FLIGHT);
+        try {
+            List<CompletableFuture<Double>> results = new ArrayList<>(requests);
+            long start = System.nanoTime();
+            for (double number : numbers) {
+                results.add(CompletableFuture.supplyAsync(() -> adapter.calculateSquareRoot(number), pool));
+            }
+            report("call per request", start, results, numbers, perCall);
+        } finally {
+            pool.shutdown();
+        }
+
+        SlowThirdPartyCalculator batched = new SlowThirdPartyCalculator(delayMillis);
+        try (CoalescingCalculatorAdapter coalescing =
+                     new CoalescingCalculatorAdapter(batched, BATCH_SIZE, 1, IN_FLIGHT, requests, 10_000)) {
+            List<CompletableFuture<Double>> results = new ArrayList<>(requests);
+            long start = System.nanoTime();
+            for (double number : numbers) {
+                results.add(coalescing.calculateSquareRootAsync(number));
+            }
+            report("coalesced, batches of " + BATCH_SIZE, start, results, numbers, batched);
+        }
+    }
+
+    private static void report(String label, long startNanos, List<CompletableFuture<Double>> results,
+                               double[] numbers, SlowThirdPartyCalculator calculator) {
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        for (int i = 0; i < numbers.length; i++) {
+            if (Double.compare(results.get(i).join(), Math.sqrt(numbers[i])) != 0) {
+                throw new IllegalStateException("Request " + i + " got a wrong root");
+            }
+        }
+        System.out.printf("%-30s %9.0f requests/s, %d third-party calls%n",
+                label, numbers.length / seconds, calculator.getCallCount());
+    }
 }
 
 // Пример использования
@@ -51,6 +466,24 @@ public class AdapterPattern {
         // Вызов метода через адаптер
         double result = adapter.calculateSquareRoot(16);
         System.out.println("Square root: " + result);
+
+        // Пакетный вызов: один вызов адаптера на весь массив измерений
+        double[] measurements = {1, 4, 9, 16, 25, 36, 49, 64};
+        double[] roots = new double[measurements.length];
+        adapter.calculateSquareRoots(measurements, roots);
+        System.out.println("Square roots: " + Arrays.toString(roots));
+
+        // Асинхронный адаптер к медленному сервису: одновременные запросы уходят одним пакетом
+        SlowThirdPartyCalculator slowCalculator = new SlowThirdPartyCalculator(50);
+        try (CoalescingCalculatorAdapter coalescing = new CoalescingCalculatorAdapter(slowCalculator, 32, 5, 4, 1000, 1000)) {
+            List<CompletableFuture<Double>> futures = new ArrayList<>();
+            for (double measurement : measurements) {
+                futures.add(coalescing.calculateSquareRootAsync(measurement));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            System.out.println(futures.size() + " async roots in " + slowCalculator.getCallCount() + " third-party call(s): "
+                    + futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        }
     }
 }
 /*
@@ -0,0 +1,24 @@
+package org.example.structural;
+
+// Общие части бенчмарков с main(): прогревочный раунд перед замером и оценка занятой кучи
+class BenchmarkSupport {
+    // Один раунд замеров; suffix добавляется к подписям результатов
+    interface Round<E extends Exception> {
+        void run(String suffix) throws E;
+    }
+
+    // Первый раунд прогревает JIT и помечается " (warm-up)", второй дает итоговые цифры
+    static <E extends Exception> void runWithWarmUp(Round<E> round) throws E {
+        round.run(" (warm-up)");
+        round.run("");
+    }
+
+    // Занятая куча после нескольких сборок мусора; разница двух замеров - память построенной структуры
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
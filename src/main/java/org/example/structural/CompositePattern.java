@@ -1,7 +1,33 @@
 package org.example.structural;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /*    Паттерн Компоновщик (Composite) относится к категории структурных паттернов проектирования и используется для
 компоновки объектов в древовидные структуры для представления иерархий часть-целое. Компоновщик позволяет клиентам
@@ -21,18 +47,33 @@ import java.util.List;
     Пример использования паттерна Компоновщик:
 Рассмотрим пример с файловой системой, где есть файлы (листья) и папки (композиты), которые могут содержать другие файлы и папки.*/
 
-// Компонент
-interface FileSystemComponent {
+// Операции, общие для компонентов Folder/File и узлов CompactFileTree. Подсчет итогов у компактного дерева
+// свой - CompactFileTree.aggregate(int), параллельный обход есть только у FileSystemComponent.
+interface FileSystemNode {
     void showDetails();
-    int getSize();
+    long getSize();
+    String getName();
+}
+
+// Компонент: узел, который можно поместить в Folder
+interface FileSystemComponent extends FileSystemNode {
+    // Явная ссылка на родителя позволяет изменять агрегированные размеры вверх по цепочке папок
+    Folder getParent();
+    void setParent(Folder parent);
+
+    // Параллельный подсчет размера и количества файлов поддерева в общем fork-join пуле
+    default SubtreeTotals aggregateParallel() {
+        return FileSystemAggregator.parallel(this);
+    }
 }
 
 // Лист - Файл
 class File implements FileSystemComponent {
     private String name;
-    private int size;
+    private long size;
+    private Folder parent;
 
-    public File(String name, int size) {
+    public File(String name, long size) {
         this.name = name;
         this.size = size;
     }
@@ -41,48 +82,799 @@ class File implements FileSystemComponent {
         System.out.println("File: " + name + " (Size: " + size + " KB)");
     }
 
-    public int getSize() {
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
         return size;
     }
+
+    // При изменении размера файла разница передается всем папкам-предкам
+    public void setSize(long size) {
+        long delta = size - this.size;
+        this.size = size;
+        if (parent != null) {
+            parent.updateSize(delta);
+        }
+    }
+
+    public Folder getParent() {
+        return parent;
+    }
+
+    public void setParent(Folder parent) {
+        this.parent = parent;
+    }
 }
 
 // Композит - Папка
 class Folder implements FileSystemComponent {
     private String name;
-    private List<FileSystemComponent> components = new ArrayList<>();
+    // Дочерние компоненты по имени в порядке добавления: поиск и удаление за O(1) без перестановки детей
+    private Map<String, FileSystemComponent> components = new LinkedHashMap<>();
+    private Folder parent;
+    // Кэшированный суммарный размер поддерева, обновляется инкрементально
+    private long totalSize;
 
     public Folder(String name) {
         this.name = name;
     }
 
     public void add(FileSystemComponent component) {
-        components.add(component);
+        for (Folder ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor == component) {
+                throw new IllegalArgumentException("Folder cannot contain itself: " + name);
+            }
+        }
+        FileSystemComponent existing = getChild(component.getName());
+        if (existing != null && existing != component) {
+            throw new IllegalArgumentException("Folder " + name + " already contains " + component.getName());
+        }
+        // Компонент отсоединяется от старого родителя только после всех проверок, иначе отклоненное добавление его потеряет
+        if (component.getParent() != null) {
+            component.getParent().remove(component);
+        }
+        components.put(component.getName(), component);
+        component.setParent(this);
+        updateSize(component.getSize());
     }
 
     public void remove(FileSystemComponent component) {
-        components.remove(component);
+        if (!components.remove(component.getName(), component)) {
+            return;
+        }
+        component.setParent(null);
+        updateSize(-component.getSize());
+    }
+
+    // Дочерний компонент по имени или null
+    public FileSystemComponent getChild(String childName) {
+        return components.get(childName);
+    }
+
+    // Поиск по пути, который начинается с имени этой папки, например "Root/Media/Video.mp4".
+    // Каждый сегмент ищется в индексе имен за O(1). Если путь не найден, возвращается null.
+    public FileSystemComponent resolve(String path) {
+        int end = path.indexOf('/');
+        String first = end < 0 ? path : path.substring(0, end);
+        if (!first.equals(name)) {
+            return null;
+        }
+        FileSystemComponent current = this;
+        while (end >= 0) {
+            if (!(current instanceof Folder)) {
+                return null;
+            }
+            int start = end + 1;
+            end = path.indexOf('/', start);
+            String segment = end < 0 ? path.substring(start) : path.substring(start, end);
+            if (segment.isEmpty()) {
+                continue;
+            }
+            current = ((Folder) current).getChild(segment);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Доступ к дочерним компонентам только для чтения
+    public Collection<FileSystemComponent> getComponents() {
+        return Collections.unmodifiableCollection(components.values());
     }
 
     public void showDetails() {
         System.out.println("Folder: " + name + " (Total Size: " + getSize() + " KB)");
-        for (FileSystemComponent component : components) {
+        for (FileSystemComponent component : components.values()) {
             System.out.print("  ");
             component.showDetails();
         }
     }
 
-    public int getSize() {
-        int totalSize = 0;
-        for (FileSystemComponent component : components) {
-            totalSize += component.getSize();
-        }
+    // Размер берется из кэша за O(1) вместо обхода всего поддерева
+    public long getSize() {
         return totalSize;
     }
+
+    public Folder getParent() {
+        return parent;
+    }
+
+    public void setParent(Folder parent) {
+        this.parent = parent;
+    }
+
+    // Прибавляет delta к этой папке и ко всем ее предкам, стоимость O(глубина)
+    void updateSize(long delta) {
+        for (Folder folder = this; folder != null; folder = folder.parent) {
+            folder.totalSize += delta;
+        }
+    }
+}
+
+// Нерекурсивный вывод дерева в переданный Appendable (например, BufferedWriter).
+// Стек хранит итераторы по детям папок, поэтому память зависит только от глубины дерева,
+// а весь вывод сразу уходит в приемник и не накапливается.
+class TreeRenderer {
+    private static final int INDENT_WIDTH = 2;
+
+    public static void render(FileSystemComponent root, Appendable out) throws IOException {
+        String indent = "";
+        Deque<Iterator<FileSystemComponent>> stack = new ArrayDeque<>();
+        FileSystemComponent component = root;
+        while (component != null) {
+            int depth = stack.size();
+            if (indent.length() < depth * INDENT_WIDTH) {
+                indent = " ".repeat(depth * INDENT_WIDTH * 2);
+            }
+            out.append(indent, 0, depth * INDENT_WIDTH);
+            if (component instanceof Folder) {
+                out.append("Folder: ").append(component.getName())
+                        .append(" (Total Size: ").append(Long.toString(component.getSize())).append(" KB)\n");
+                stack.push(((Folder) component).getComponents().iterator());
+            } else {
+                out.append("File: ").append(component.getName())
+                        .append(" (Size: ").append(Long.toString(component.getSize())).append(" KB)\n");
+            }
+
+            component = null;
+            while (!stack.isEmpty()) {
+                if (stack.peek().hasNext()) {
+                    component = stack.peek().next();
+                    break;
+                }
+                stack.pop();
+            }
+        }
+    }
+}
+
+// Итоги агрегации поддерева: суммарный размер и количество файлов
+class SubtreeTotals {
+    private final long size;
+    private final long fileCount;
+
+    public SubtreeTotals(long size, long fileCount) {
+        this.size = size;
+        this.fileCount = fileCount;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+}
+
+// Агрегация поддерева полным обходом: последовательно или параллельно через fork-join
+class FileSystemAggregator {
+    public static SubtreeTotals sequential(FileSystemComponent component) {
+        long[] totals = new long[2];
+        AggregationTask.walk(component, totals);
+        return new SubtreeTotals(totals[0], totals[1]);
+    }
+
+    public static SubtreeTotals parallel(FileSystemComponent component) {
+        return parallel(component, ForkJoinPool.commonPool());
+    }
+
+    public static SubtreeTotals parallel(FileSystemComponent component, ForkJoinPool pool) {
+        if (!(component instanceof Folder)) {
+            return sequential(component);
+        }
+        FileSystemComponent[] children = AggregationTask.snapshot((Folder) component);
+        return pool.invoke(new AggregationTask(children, 0, children.length));
+    }
+}
+
+// Задача обрабатывает диапазон детей одной папки. Широкие диапазоны делятся пополам,
+// вложенные папки порождают подзадачи, пока в очереди потока мало лишней работы.
+// ForkJoinTask сериализуем, но задачи существуют только в пуле и никогда не сериализуются.
+@SuppressWarnings("serial")
+class AggregationTask extends RecursiveTask<SubtreeTotals> {
+    // Диапазоны меньше этого порога обрабатываются без деления
+    static final int SEQUENTIAL_THRESHOLD = 1_000;
+    // Если в очереди уже столько задач, новые не создаются и поддерево обходится на месте
+    static final int SURPLUS_TASK_LIMIT = 3;
+
+    private final FileSystemComponent[] children;
+    private final int from;
+    private final int to;
+
+    AggregationTask(FileSystemComponent[] children, int from, int to) {
+        this.children = children;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected SubtreeTotals compute() {
+        if (to - from > SEQUENTIAL_THRESHOLD) {
+            int middle = (from + to) >>> 1;
+            AggregationTask left = new AggregationTask(children, from, middle);
+            left.fork();
+            SubtreeTotals right = new AggregationTask(children, middle, to).compute();
+            SubtreeTotals leftTotals = left.join();
+            return new SubtreeTotals(leftTotals.getSize() + right.getSize(),
+                    leftTotals.getFileCount() + right.getFileCount());
+        }
+
+        long[] totals = new long[2];
+        Deque<AggregationTask> forked = new ArrayDeque<>();
+        for (int i = from; i < to; i++) {
+            FileSystemComponent child = children[i];
+            if (child instanceof Folder && getSurplusQueuedTaskCount() < SURPLUS_TASK_LIMIT) {
+                FileSystemComponent[] grandChildren = snapshot((Folder) child);
+                AggregationTask task = new AggregationTask(grandChildren, 0, grandChildren.length);
+                task.fork();
+                forked.push(task);
+            } else {
+                walk(child, totals);
+            }
+        }
+        // Присоединяем в обратном порядке, чтобы забрать еще не украденные задачи из своей очереди
+        while (!forked.isEmpty()) {
+            SubtreeTotals subtree = forked.pop().join();
+            totals[0] += subtree.getSize();
+            totals[1] += subtree.getFileCount();
+        }
+        return new SubtreeTotals(totals[0], totals[1]);
+    }
+
+    // Дети папки копируются в массив, чтобы задачи делили диапазоны по индексам
+    static FileSystemComponent[] snapshot(Folder folder) {
+        return folder.getComponents().toArray(new FileSystemComponent[0]);
+    }
+
+    // Последовательный обход поддерева с явным стеком; totals[0] - размер, totals[1] - количество файлов
+    static void walk(FileSystemComponent root, long[] totals) {
+        Deque<FileSystemComponent> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            FileSystemComponent component = stack.pop();
+            if (component instanceof Folder) {
+                for (FileSystemComponent child : ((Folder) component).getComponents()) {
+                    stack.push(child);
+                }
+            } else {
+                totals[0] += component.getSize();
+                totals[1]++;
+            }
+        }
+    }
+}
+
+// Бенчмарк: кэшированный getSize(), последовательный обход и параллельная агрегация.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.CompositeAggregationBenchmark" -Dexec.args="1000000"
+class CompositeAggregationBenchmark {
+    private static final int FANOUT = 100;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Folder root = buildTree(nodes);
+        System.out.println("Tree with " + nodes + " nodes, " + ForkJoinPool.commonPool().getParallelism()
+                + " worker threads");
+
+        long cached = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            cached += root.getSize();
+        }
+        report("cached getSize()", start, cached / ITERATIONS);
+
+        BenchmarkSupport.runWithWarmUp(suffix -> {
+            long roundStart = System.nanoTime();
+            SubtreeTotals sequential = null;
+            for (int i = 0; i < ITERATIONS; i++) {
+                sequential = FileSystemAggregator.sequential(root);
+            }
+            report("sequential walk" + suffix, roundStart, sequential.getSize());
+
+            roundStart = System.nanoTime();
+            SubtreeTotals parallel = null;
+            for (int i = 0; i < ITERATIONS; i++) {
+                parallel = root.aggregateParallel();
+            }
+            report("fork-join walk" + suffix, roundStart, parallel.getSize());
+
+            if (sequential.getSize() != parallel.getSize() || sequential.getFileCount() != parallel.getFileCount()) {
+                throw new IllegalStateException("Parallel and sequential totals differ");
+            }
+        });
+    }
+
+    // Строит дерево в ширину: у каждой папки FANOUT детей, каждый десятый из них - папка
+    static Folder buildTree(int nodes) {
+        Folder root = new Folder("Root");
+        Deque<Folder> queue = new ArrayDeque<>();
+        queue.add(root);
+        int created = 1;
+        while (created < nodes) {
+            Folder folder = queue.poll();
+            for (int i = 0; i < FANOUT && created < nodes; i++, created++) {
+                if (i % 10 == 0) {
+                    Folder child = new Folder("Folder" + created);
+                    folder.add(child);
+                    queue.add(child);
+                } else {
+                    folder.add(new File("File" + created, created % 1024));
+                }
+            }
+        }
+        return root;
+    }
+
+    private static void report(String label, long startNanos, long size) {
+        double millis = (System.nanoTime() - startNanos) / 1_000_000.0 / ITERATIONS;
+        System.out.printf("%-28s %10.3f ms/op  (size %d KB)%n", label, millis, size);
+    }
+}
+
+// Загрузчик дерева Folder/File из реального каталога. Узлы добавляются в дерево по мере обхода,
+// атрибуты каждого элемента читаются одним вызовом stat через BasicFileAttributes.
+class DirectoryTreeLoader {
+    public static Folder load(Path root) throws IOException {
+        if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        Deque<Folder> folders = new ArrayDeque<>();
+        Folder[] result = new Folder[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                Folder folder = new Folder(nameOf(dir));
+                if (folders.isEmpty()) {
+                    result[0] = folder;
+                } else {
+                    folders.peek().add(folder);
+                }
+                folders.push(folder);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                folders.peek().add(new File(nameOf(file), toKilobytes(attrs.size())));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                folders.pop();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return result[0];
+    }
+
+    public static Folder loadParallel(Path root) throws IOException {
+        return loadParallel(root, ForkJoinPool.commonPool());
+    }
+
+    // Каждый каталог читается своей задачей; поддерево присоединяется к родителю только после завершения,
+    // поэтому папки никогда не изменяются из нескольких потоков одновременно.
+    public static Folder loadParallel(Path root, ForkJoinPool pool) throws IOException {
+        if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        try {
+            return pool.invoke(new DirectoryTask(root));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static String nameOf(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null ? fileName.toString() : path.toString();
+    }
+
+    // Размеры в дереве хранятся в килобайтах, неполный килобайт округляется вверх
+    static long toKilobytes(long bytes) {
+        return (bytes + 1023) / 1024;
+    }
+
+    // Задачи существуют только в пуле и никогда не сериализуются
+    @SuppressWarnings("serial")
+    private static class DirectoryTask extends RecursiveTask<Folder> {
+        private final Path dir;
+
+        DirectoryTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected Folder compute() {
+            Folder folder = new Folder(nameOf(dir));
+            Deque<DirectoryTask> subdirectories = new ArrayDeque<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        DirectoryTask task = new DirectoryTask(entry);
+                        task.fork();
+                        subdirectories.push(task);
+                    } else {
+                        folder.add(new File(nameOf(entry), toKilobytes(attrs.size())));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            while (!subdirectories.isEmpty()) {
+                folder.add(subdirectories.pop().join());
+            }
+            return folder;
+        }
+    }
+}
+
+// Бенчмарк загрузки дерева из временного каталога: пропускная способность и пиковая память кучи.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.DirectoryLoaderBenchmark" -Dexec.args="100000"
+class DirectoryLoaderBenchmark {
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    public static void main(String[] args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path root = Files.createTempDirectory("composite-scan");
+        try {
+            generate(root, files);
+            System.out.println("Generated " + files + " files in " + root);
+            BenchmarkSupport.runWithWarmUp(suffix -> {
+                measure("sequential scan" + suffix, root, false);
+                measure("parallel scan" + suffix, root, true);
+            });
+        } finally {
+            deleteRecursively(root);
+        }
+    }
+
+    private static void measure(String label, Path root, boolean parallel) throws IOException {
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long start = System.nanoTime();
+        Folder tree = parallel ? DirectoryTreeLoader.loadParallel(root) : DirectoryTreeLoader.load(root);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peakBytes = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakBytes += pool.getPeakUsage().getUsed();
+        }
+        SubtreeTotals totals = FileSystemAggregator.sequential(tree);
+        System.out.printf("%-28s %8.3f s  %12.0f files/s  peak heap %6d MB  (%d files, %d KB)%n",
+                label, seconds, totals.getFileCount() / seconds, peakBytes >> 20,
+                totals.getFileCount(), tree.getSize());
+    }
+
+    // Раскладывает файлы по подкаталогам двух уровней по FILES_PER_DIRECTORY в каждом
+    private static void generate(Path root, int files) throws IOException {
+        byte[] content = new byte[2048];
+        Path directory = root;
+        for (int i = 0; i < files; i++) {
+            if (i % FILES_PER_DIRECTORY == 0) {
+                int index = i / FILES_PER_DIRECTORY;
+                directory = Files.createDirectories(root.resolve("d" + index / FILES_PER_DIRECTORY).resolve("d" + index));
+            }
+            Files.write(directory.resolve("f" + i + ".bin"), content);
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
+
+// Компактное хранилище дерева на примитивных массивах: узел - это индекс, а не объект.
+// Связи хранятся как parent/firstChild/lastChild/nextSibling, имена - в общем UTF-8 пуле байтов.
+// Размер папки кэшируется в size[] и обновляется вверх по цепочке родителей, как в Folder.
+class CompactFileTree {
+    public static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private int count;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private long[] size;
+    // Имя узла i занимает байты [nameOffset[i], nameOffset[i + 1]) пула; для последнего узла - до namesLength
+    private int[] nameOffset;
+    private boolean[] folder;
+    private byte[] names;
+    private int namesLength;
+
+    public CompactFileTree(String rootName) {
+        this(rootName, 16);
+    }
+
+    public CompactFileTree(String rootName, int expectedNodes) {
+        int capacity = Math.max(expectedNodes, 1);
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        lastChild = new int[capacity];
+        nextSibling = new int[capacity];
+        size = new long[capacity];
+        nameOffset = new int[capacity];
+        folder = new boolean[capacity];
+        names = new byte[capacity * 8];
+        append(NONE, rootName, true, 0);
+    }
+
+    public int addFolder(int parentNode, String name) {
+        checkFolder(parentNode);
+        return append(parentNode, name, true, 0);
+    }
+
+    public int addFile(int parentNode, String name, long fileSize) {
+        checkFolder(parentNode);
+        int node = append(parentNode, name, false, fileSize);
+        updateSize(parentNode, fileSize);
+        return node;
+    }
+
+    public void setFileSize(int node, long fileSize) {
+        if (folder[checkNode(node)]) {
+            throw new IllegalArgumentException("Not a file: " + getName(node));
+        }
+        long delta = fileSize - size[node];
+        size[node] = fileSize;
+        updateSize(parent[node], delta);
+    }
+
+    public long getSize(int node) {
+        return size[checkNode(node)];
+    }
+
+    public String getName(int node) {
+        checkNode(node);
+        int end = node + 1 < count ? nameOffset[node + 1] : namesLength;
+        return new String(names, nameOffset[node], end - nameOffset[node], StandardCharsets.UTF_8);
+    }
+
+    public boolean isFolder(int node) {
+        return folder[checkNode(node)];
+    }
+
+    public int getNodeCount() {
+        return count;
+    }
+
+    // Представление узла через общий интерфейс узлов; объект-обертка создается по запросу.
+    // Это не FileSystemComponent: связи узла хранятся в массивах дерева, поэтому поместить его в Folder нельзя.
+    public FileSystemNode node(int node) {
+        return new Node(checkNode(node));
+    }
+
+    // Тот же формат, что у Folder.showDetails(), но обход без рекурсии и стека - по ссылкам на родителя
+    public void showDetails(int start) {
+        int node = checkNode(start);
+        while (true) {
+            if (node != start) {
+                System.out.print("  ");
+            }
+            if (folder[node]) {
+                System.out.println("Folder: " + getName(node) + " (Total Size: " + size[node] + " KB)");
+            } else {
+                System.out.println("File: " + getName(node) + " (Size: " + size[node] + " KB)");
+            }
+            node = nextInPreOrder(start, node);
+            if (node == NONE) {
+                return;
+            }
+        }
+    }
+
+    // Последовательный полный обход поддерева для подсчета размера и количества файлов
+    public SubtreeTotals aggregate(int start) {
+        long totalSize = 0;
+        long files = 0;
+        for (int node = checkNode(start); node != NONE; node = nextInPreOrder(start, node)) {
+            if (!folder[node]) {
+                totalSize += size[node];
+                files++;
+            }
+        }
+        return new SubtreeTotals(totalSize, files);
+    }
+
+    private int nextInPreOrder(int start, int node) {
+        if (folder[node] && firstChild[node] != NONE) {
+            return firstChild[node];
+        }
+        while (node != start) {
+            if (nextSibling[node] != NONE) {
+                return nextSibling[node];
+            }
+            node = parent[node];
+        }
+        return NONE;
+    }
+
+    private int append(int parentNode, String name, boolean isFolder, long nodeSize) {
+        if (count == parent.length) {
+            int capacity = count + (count >> 1) + 1;
+            parent = Arrays.copyOf(parent, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            size = Arrays.copyOf(size, capacity);
+            nameOffset = Arrays.copyOf(nameOffset, capacity);
+            folder = Arrays.copyOf(folder, capacity);
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (namesLength + bytes.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(namesLength + bytes.length, names.length + (names.length >> 1)));
+        }
+        System.arraycopy(bytes, 0, names, namesLength, bytes.length);
+
+        int node = count++;
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        nextSibling[node] = NONE;
+        size[node] = nodeSize;
+        nameOffset[node] = namesLength;
+        folder[node] = isFolder;
+        namesLength += bytes.length;
+
+        if (parentNode != NONE) {
+            if (lastChild[parentNode] == NONE) {
+                firstChild[parentNode] = node;
+            } else {
+                nextSibling[lastChild[parentNode]] = node;
+            }
+            lastChild[parentNode] = node;
+        }
+        return node;
+    }
+
+    private void updateSize(int node, long delta) {
+        for (; node != NONE; node = parent[node]) {
+            size[node] += delta;
+        }
+    }
+
+    private int checkNode(int node) {
+        if (node < 0 || node >= count) {
+            throw new IndexOutOfBoundsException("Node " + node + " out of bounds for tree of " + count + " nodes");
+        }
+        return node;
+    }
+
+    private void checkFolder(int node) {
+        if (!folder[checkNode(node)]) {
+            throw new IllegalArgumentException("Not a folder: " + getName(node));
+        }
+    }
+
+    // Узел компактного дерева
+    private class Node implements FileSystemNode {
+        private final int index;
+
+        Node(int index) {
+            this.index = index;
+        }
+
+        public void showDetails() {
+            CompactFileTree.this.showDetails(index);
+        }
+
+        public long getSize() {
+            return size[index];
+        }
+
+        public String getName() {
+            return CompactFileTree.this.getName(index);
+        }
+    }
+}
+
+// Сравнение памяти на узел и скорости обхода: объектное дерево Folder/File против CompactFileTree.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.CompactTreeBenchmark" -Dexec.args="1000000"
+class CompactTreeBenchmark {
+    private static final int FANOUT = 100;
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long before = BenchmarkSupport.usedHeap();
+        Folder objects = CompositeAggregationBenchmark.buildTree(nodes);
+        long objectBytes = BenchmarkSupport.usedHeap() - before;
+
+        before = BenchmarkSupport.usedHeap();
+        CompactFileTree compact = buildCompactTree(nodes);
+        long compactBytes = BenchmarkSupport.usedHeap() - before;
+
+        System.out.printf("Object tree:  %8.1f bytes/node%n", (double) objectBytes / nodes);
+        System.out.printf("Compact tree: %8.1f bytes/node%n", (double) compactBytes / nodes);
+
+        BenchmarkSupport.runWithWarmUp(suffix -> {
+            long start = System.nanoTime();
+            SubtreeTotals objectTotals = FileSystemAggregator.sequential(objects);
+            long objectNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            SubtreeTotals compactTotals = compact.aggregate(CompactFileTree.ROOT);
+            long compactNanos = System.nanoTime() - start;
+            if (objectTotals.getSize() != compactTotals.getSize() || compact.getSize(CompactFileTree.ROOT) != objects.getSize()) {
+                throw new IllegalStateException("Object and compact trees differ");
+            }
+            System.out.printf("Full walk: object %8.3f ms, compact %8.3f ms%s%n", objectNanos / 1e6, compactNanos / 1e6, suffix);
+        });
+    }
+
+    // Та же форма дерева, что и CompositeAggregationBenchmark.buildTree
+    static CompactFileTree buildCompactTree(int nodes) {
+        CompactFileTree tree = new CompactFileTree("Root", nodes);
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(CompactFileTree.ROOT);
+        int created = 1;
+        while (created < nodes) {
+            int folder = queue.poll();
+            for (int i = 0; i < FANOUT && created < nodes; i++, created++) {
+                if (i % 10 == 0) {
+                    queue.add(tree.addFolder(folder, "Folder" + created));
+                } else {
+                    tree.addFile(folder, "File" + created, created % 1024);
+                }
+            }
+        }
+        return tree;
+    }
 }
 
 // Пример использования
 public class CompositePattern {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // Создаем файлы
         File file1 = new File("Document.txt", 10);
         File file2 = new File("Image.jpg", 500);
@@ -112,6 +904,35 @@ public class CompositePattern {
 
         System.out.println("\n--- Individual Folder ---");
         folder2.showDetails();
+
+        // Поиск по пути через индекс имен
+        System.out.println("\nResolved Root/Media/Video.mp4: " + rootFolder.resolve("Root/Media/Video.mp4").getSize() + " KB");
+
+        // Изменение размера файла сразу отражается в размерах всех папок-предков
+        file3.setSize(3000);
+        System.out.println("\n--- After resizing Video.mp4 ---");
+        rootFolder.showDetails();
+
+        // Параллельная агрегация полным обходом дает тот же размер, что и кэш
+        SubtreeTotals totals = rootFolder.aggregateParallel();
+        System.out.println("\nParallel totals: " + totals.getSize() + " KB in " + totals.getFileCount() + " files");
+
+        // Нерекурсивный вывод с отступами по глубине в буферизованный приемник
+        System.out.println("\n--- Rendered tree ---");
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        TreeRenderer.render(rootFolder, out);
+        out.flush();
+
+        // То же дерево в компактном представлении на массивах
+        CompactFileTree compact = new CompactFileTree("Root");
+        int documents = compact.addFolder(CompactFileTree.ROOT, "My Documents");
+        compact.addFile(documents, "Document.txt", 10);
+        int media = compact.addFolder(CompactFileTree.ROOT, "Media");
+        compact.addFile(media, "Image.jpg", 500);
+        compact.addFile(media, "Video.mp4", 3000);
+        compact.addFile(CompactFileTree.ROOT, "README.md", 5);
+        System.out.println("\n--- Compact tree ---");
+        compact.node(CompactFileTree.ROOT).showDetails();
     }
 }
 /*
@@ -1,5 +1,10 @@
 package org.example.structural;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
 /*  Паттерн Декоратор (Decorator) относится к категории структурных паттернов проектирования и используется для динамического
 добавления нового функционала объекту без изменения его основной структуры. Он предоставляет гибкую альтернативу наследованию для расширения функциональности класса.
 
@@ -67,6 +72,239 @@ class ChocolateDecorator implements Coffee {
     }
 }
 
+// Плоский неизменяемый кофе: цепочка декораторов "сплавляется" один раз, после чего стоимость
+// и описание возвращаются без рекурсии по цепочке и без создания новых строк
+final class FlatCoffee implements Coffee {
+    private final double cost;
+    private final String description;
+
+    private FlatCoffee(double cost, String description) {
+        this.cost = cost;
+        this.description = description;
+    }
+
+    public static Coffee of(Coffee coffee) {
+        if (coffee instanceof FlatCoffee) {
+            return coffee;
+        }
+        return new FlatCoffee(coffee.cost(), coffee.getDescription());
+    }
+
+    public double cost() {
+        return cost;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
+
+// Стоимость вызовов cost() и getDescription() для цепочек глубиной 1-1000: декораторы против FlatCoffee.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.DecoratorChainBenchmark"
+class DecoratorChainBenchmark {
+    private static final int[] DEPTHS = {1, 10, 100, 1000};
+    private static final int CALLS = 10_000;
+
+    public static void main(String[] args) {
+        BenchmarkSupport.runWithWarmUp(suffix -> {
+            for (int depth : DEPTHS) {
+                Coffee chain = new SimpleCoffee();
+                for (int i = 0; i < depth; i++) {
+                    chain = i % 2 == 0 ? new MilkDecorator(chain) : new ChocolateDecorator(chain);
+                }
+                Coffee flat = FlatCoffee.of(chain);
+                System.out.printf("depth %4d: chain %10.1f ns/call, flat %6.1f ns/call%s%n",
+                        depth, measure(chain), measure(flat), suffix);
+            }
+        });
+    }
+
+    private static double measure(Coffee coffee) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            sink += (long) coffee.cost() + coffee.getDescription().length();
+        }
+        double nanos = (double) (System.nanoTime() - start) / CALLS;
+        return sink == 42 ? -nanos : nanos;
+    }
+}
+
+// Добавки к кофе и соответствующие им декораторы
+enum AddOn {
+    MILK(MilkDecorator::new),
+    CHOCOLATE(ChocolateDecorator::new);
+
+    private final UnaryOperator<Coffee> decorator;
+
+    AddOn(UnaryOperator<Coffee> decorator) {
+        this.decorator = decorator;
+    }
+
+    public Coffee decorate(Coffee coffee) {
+        return decorator.apply(coffee);
+    }
+}
+
+// Движок расчета цены заказов в целых центах (long) без построения цепочки декораторов на каждый заказ.
+// Таблица цен добавок вычисляется один раз из самих декораторов, поэтому цены не расходятся с ними.
+class CoffeePricingEngine {
+    private static final int ADD_ON_COUNT = AddOn.values().length;
+
+    private final long basePriceCents;
+    private final long[] addOnPriceCents = new long[ADD_ON_COUNT];
+
+    public CoffeePricingEngine() {
+        Coffee base = new SimpleCoffee();
+        basePriceCents = toCents(base.cost());
+        for (AddOn addOn : AddOn.values()) {
+            addOnPriceCents[addOn.ordinal()] = toCents(addOn.decorate(base).cost()) - basePriceCents;
+        }
+    }
+
+    public static int getAddOnCount() {
+        return ADD_ON_COUNT;
+    }
+
+    public long getAddOnPriceCents(AddOn addOn) {
+        return addOnPriceCents[addOn.ordinal()];
+    }
+
+    // Цена одного заказа: addOnCounts[a] - количество добавки с порядковым номером a
+    public long priceCents(int[] addOnCounts) {
+        long total = basePriceCents;
+        for (int a = 0; a < ADD_ON_COUNT; a++) {
+            total += addOnCounts[a] * addOnPriceCents[a];
+        }
+        return total;
+    }
+
+    // Пакетный расчет: количества добавок заказа o лежат в addOnCounts[o * getAddOnCount() + a],
+    // результат записывается в totalsCents[o]
+    public void priceBatch(int[] addOnCounts, long[] totalsCents) {
+        if (addOnCounts.length != totalsCents.length * ADD_ON_COUNT) {
+            throw new IllegalArgumentException("Expected " + totalsCents.length * ADD_ON_COUNT
+                    + " add-on counts for " + totalsCents.length + " orders, got " + addOnCounts.length);
+        }
+        for (int order = 0, offset = 0; order < totalsCents.length; order++, offset += ADD_ON_COUNT) {
+            long total = basePriceCents;
+            for (int a = 0; a < ADD_ON_COUNT; a++) {
+                total += addOnCounts[offset + a] * addOnPriceCents[a];
+            }
+            totalsCents[order] = total;
+        }
+    }
+
+    static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+}
+
+// Канонический кэш комбинаций добавок. Комбинации хранятся в префиксном дереве по упорядоченной
+// последовательности добавок: поиск проходит по узлам без создания ключа, а равные комбинации
+// получают один и тот же FlatCoffee с общей строкой описания и заранее вычисленной ценой.
+class CoffeeCombinationCache {
+    private final Node root = new Node(FlatCoffee.of(new SimpleCoffee()));
+    private final AtomicInteger size = new AtomicInteger(1);
+
+    public Coffee get(AddOn... addOns) {
+        return get(addOns, addOns.length);
+    }
+
+    // Первые length добавок массива в порядке применения декораторов
+    public Coffee get(AddOn[] addOns, int length) {
+        Node node = root;
+        for (int i = 0; i < length; i++) {
+            node = node.child(addOns[i]);
+        }
+        return node.coffee;
+    }
+
+    // Число различных комбинаций в кэше, включая кофе без добавок
+    public int size() {
+        return size.get();
+    }
+
+    private final class Node {
+        private final Coffee coffee;
+        private final AtomicReferenceArray<Node> children = new AtomicReferenceArray<>(AddOn.values().length);
+
+        Node(Coffee coffee) {
+            this.coffee = coffee;
+        }
+
+        // Дочерний узел создается из родительского за один шаг декорирования; при гонке побеждает первый
+        Node child(AddOn addOn) {
+            Node child = children.get(addOn.ordinal());
+            if (child == null) {
+                Node created = new Node(FlatCoffee.of(addOn.decorate(coffee)));
+                if (children.compareAndSet(addOn.ordinal(), null, created)) {
+                    size.incrementAndGet();
+                    child = created;
+                } else {
+                    child = children.get(addOn.ordinal());
+                }
+            }
+            return child;
+        }
+    }
+}
+
+// Расчет цен через цепочку декораторов против CoffeePricingEngine с проверкой совпадения результатов.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.CoffeePricingBenchmark" -Dexec.args="1000000"
+class CoffeePricingBenchmark {
+    private static final int MAX_PORTIONS = 3;
+
+    public static void main(String[] args) {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int addOns = CoffeePricingEngine.getAddOnCount();
+        Random random = new Random(42);
+        int[] counts = new int[orders * addOns];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = random.nextInt(MAX_PORTIONS + 1);
+        }
+
+        CoffeePricingEngine engine = new CoffeePricingEngine();
+        long[] engineCents = new long[orders];
+        long[] decoratorCents = new long[orders];
+        BenchmarkSupport.runWithWarmUp(suffix -> {
+            long start = System.nanoTime();
+            priceWithDecorators(counts, decoratorCents);
+            report("decorator graph per order" + suffix, start, orders);
+
+            start = System.nanoTime();
+            engine.priceBatch(counts, engineCents);
+            report("pricing engine batch" + suffix, start, orders);
+        });
+
+        for (int order = 0; order < orders; order++) {
+            if (engineCents[order] != decoratorCents[order]) {
+                throw new IllegalStateException("Order " + order + ": engine " + engineCents[order]
+                        + " cents, decorators " + decoratorCents[order] + " cents");
+            }
+        }
+        System.out.println("All " + orders + " orders match the decorator prices");
+    }
+
+    private static void priceWithDecorators(int[] counts, long[] totalsCents) {
+        AddOn[] addOns = AddOn.values();
+        for (int order = 0; order < totalsCents.length; order++) {
+            Coffee coffee = new SimpleCoffee();
+            for (AddOn addOn : addOns) {
+                for (int portion = counts[order * addOns.length + addOn.ordinal()]; portion > 0; portion--) {
+                    coffee = addOn.decorate(coffee);
+                }
+            }
+            totalsCents[order] = CoffeePricingEngine.toCents(coffee.cost());
+        }
+    }
+
+    private static void report(String label, long startNanos, int orders) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%-38s %8.1f M orders/s%n", label, orders / seconds / 1e6);
+    }
+}
+
 // Пример использования
 public class DecoratorPattern {
     public static void main(String[] args) {
@@ -81,6 +319,21 @@ public class DecoratorPattern {
         // Кофе с молоком и шоколадом
         Coffee chocolateMilkCoffee = new ChocolateDecorator(milkCoffee);
         System.out.println("Cost: " + chocolateMilkCoffee.cost() + ", Description: " + chocolateMilkCoffee.getDescription());
+
+        // Цепочка, сплавленная в плоский объект: результат тот же, но без повторного обхода декораторов
+        Coffee flatCoffee = FlatCoffee.of(chocolateMilkCoffee);
+        System.out.println("Cost: " + flatCoffee.cost() + ", Description: " + flatCoffee.getDescription() + " (flattened)");
+
+        // Та же цена в целых центах через таблицу цен добавок
+        CoffeePricingEngine engine = new CoffeePricingEngine();
+        System.out.println("Priced in cents: " + engine.priceCents(new int[]{1, 1}));
+
+        // Повторяющиеся комбинации добавок разделяют одно описание и одну цену
+        CoffeeCombinationCache combinations = new CoffeeCombinationCache();
+        Coffee first = combinations.get(AddOn.MILK, AddOn.CHOCOLATE);
+        Coffee second = combinations.get(AddOn.MILK, AddOn.CHOCOLATE);
+        System.out.println("Cached: " + first.getDescription() + ", shared description: "
+                + (first.getDescription() == second.getDescription()) + ", combinations: " + combinations.size());
     }
 }
 /*  В этом примере SimpleCoffee представляет базовый компонент, а MilkDecorator и ChocolateDecorator представляют конкретные декораторы,
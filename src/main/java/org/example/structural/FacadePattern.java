@@ -1,5 +1,30 @@
 package org.example.structural;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
 /*  Паттерн Фасад (Facade) относится к категории структурных паттернов проектирования и предоставляет унифицированный интерфейс
 для доступа к группе интерфейсов подсистемы. Он упрощает использование сложной подсистемы, предоставляя более высокоуровневый интерфейс.
 
@@ -12,51 +37,480 @@ package org.example.structural;
 Рассмотрим пример с использованием фасада для управления компьютером.*/
 
 // Подсистема
+// Обрабатывает данные порциями прямо из буфера, полученного от памяти, считая контрольную сумму CRC32C
 class CPU {
+    private final CRC32C checksum = new CRC32C();
+
     public void processData() {
         System.out.println("CPU is processing data");
     }
+
+    public void processData(ByteBuffer chunk) {
+        checksum.update(chunk);
+    }
+
+    public long getChecksum() {
+        return checksum.getValue();
+    }
+
+    public void reset() {
+        checksum.reset();
+    }
 }
 
 // Подсистема
+// Принимает заполненные буферы во владение без копирования и отдает их процессору в порядке загрузки
 class Memory {
+    // Буфер нулевой емкости отмечает конец данных
+    static final ByteBuffer END_OF_DATA = ByteBuffer.allocateDirect(0);
+
+    private final BlockingQueue<ByteBuffer> loaded = new ArrayBlockingQueue<>(HardDrive.BUFFER_COUNT + 1);
+
     public void load() {
         System.out.println("Memory is loading data");
     }
+
+    public void load(ByteBuffer buffer) throws InterruptedException {
+        loaded.put(buffer);
+    }
+
+    // Отмечает конец данных. Очередь вмещает все буферы диска и маркер, поэтому вызов не блокируется
+    public void finish() {
+        loaded.add(END_OF_DATA);
+    }
+
+    public ByteBuffer take() throws InterruptedException {
+        return loaded.take();
+    }
+
+    public void clear() {
+        loaded.clear();
+    }
 }
 
 // Подсистема
+// Читает файл через FileChannel в прямые буферы. Буферов два: пока процессор обрабатывает один,
+// диск заполняет другой (двойная буферизация).
 class HardDrive {
+    static final int BUFFER_COUNT = 2;
+
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final int bufferSize;
+
+    public HardDrive() {
+        this(4 << 20);
+    }
+
+    public HardDrive(int bufferSize) {
+        this.bufferSize = bufferSize;
+        resetBuffers();
+    }
+
+    // Выделяет буферы заново, например после прерванного прогона, когда часть буферов не вернулась
+    public void resetBuffers() {
+        free.clear();
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
     public void readData() {
         System.out.println("HardDrive is reading data");
     }
+
+    // Заполняет свободные буферы и передает их памяти. END_OF_DATA передается в любом случае,
+    // в том числе при ошибке чтения, чтобы процессор не ждал данных, которых уже не будет.
+    public void readData(FileChannel channel, Memory memory) throws IOException, InterruptedException {
+        try {
+            while (true) {
+                ByteBuffer buffer = free.take();
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // читаем, пока буфер не заполнится или файл не закончится
+                }
+                buffer.flip();
+                if (!buffer.hasRemaining()) {
+                    free.add(buffer);
+                    return;
+                }
+                memory.load(buffer);
+            }
+        } finally {
+            memory.finish();
+        }
+    }
+
+    // Возвращает обработанный буфер для повторного чтения
+    public void release(ByteBuffer buffer) {
+        free.add(buffer);
+    }
+}
+
+// Результат прогона файла через конвейер диск - память - процессор
+class PipelineReport {
+    private final long bytes;
+    private final long nanos;
+    private final long checksum;
+
+    PipelineReport(long bytes, long nanos, long checksum) {
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.checksum = checksum;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public double getMegabytesPerSecond() {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+}
+
+// Граф запуска подсистем: этапы без общих зависимостей выполняются параллельно, зависимые - после
+// своих зависимостей. Время каждого этапа записывается; при ошибке любого этапа запуск сразу прерывается.
+class StartupGraph {
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    // Зависимости должны быть объявлены раньше, поэтому граф всегда ацикличен
+    public StartupGraph stage(String name, Runnable action, String... dependsOn) {
+        if (stages.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate startup stage: " + name);
+        }
+        List<Stage> dependencies = new ArrayList<>();
+        for (String dependency : dependsOn) {
+            Stage stage = stages.get(dependency);
+            if (stage == null) {
+                throw new IllegalArgumentException("Stage " + name + " depends on undeclared stage " + dependency);
+            }
+            dependencies.add(stage);
+        }
+        stages.put(name, new Stage(name, action, dependencies));
+        return this;
+    }
+
+    // Запускает все этапы и возвращает длительность каждого в миллисекундах в порядке объявления
+    public Map<String, Double> run() {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, stages.size()));
+        try {
+            CompletableFuture<Void> failure = new CompletableFuture<>();
+            Map<Stage, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+            for (Stage stage : stages.values()) {
+                CompletableFuture<?>[] dependencies = stage.dependencies.stream()
+                        .map(futures::get)
+                        .toArray(CompletableFuture<?>[]::new);
+                CompletableFuture<Void> future = CompletableFuture.allOf(dependencies)
+                        .thenRunAsync(stage::runTimed, executor);
+                future.whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        failure.completeExceptionally(error);
+                    }
+                });
+                futures.put(stage, future);
+            }
+            CompletableFuture<Void> all = CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]));
+            try {
+                CompletableFuture.anyOf(all, failure).join();
+            } catch (CompletionException e) {
+                futures.values().forEach(future -> future.cancel(false));
+                Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                throw new IllegalStateException("Startup failed: " + cause.getMessage(), cause);
+            }
+            Map<String, Double> timings = new LinkedHashMap<>();
+            for (Stage stage : stages.values()) {
+                timings.put(stage.name, stage.durationNanos / 1e6);
+            }
+            return timings;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Stage {
+        private final String name;
+        private final Runnable action;
+        private final List<Stage> dependencies;
+        private volatile long durationNanos;
+
+        Stage(String name, Runnable action, List<Stage> dependencies) {
+            this.name = name;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+
+        void runTimed() {
+            long start = System.nanoTime();
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("stage " + name + " failed", e);
+            } finally {
+                durationNanos = System.nanoTime() - start;
+            }
+        }
+    }
+}
+
+// Подсистема, создаваемая при первом обращении. Создание выполняется ровно один раз
+// даже при одновременных обращениях из нескольких потоков (блокировка с двойной проверкой).
+class LazySubsystem<T> {
+    private final Supplier<? extends T> factory;
+    private volatile T instance;
+
+    LazySubsystem(Supplier<? extends T> factory) {
+        this.factory = factory;
+    }
+
+    public T get() {
+        T result = instance;
+        if (result == null) {
+            synchronized (this) {
+                result = instance;
+                if (result == null) {
+                    result = factory.get();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public boolean isInitialized() {
+        return instance != null;
+    }
 }
 
 // Фасад
+// Подсистемы создаются лениво: клиент, которому нужен только процессор, не платит за выделение
+// буферов диска. Чувствительные к задержке клиенты могут заранее прогреть нужные подсистемы в фоне.
 class ComputerFacade {
-    private CPU cpu;
-    private Memory memory;
-    private HardDrive hardDrive;
+    enum Subsystem {
+        PROCESSOR, MEMORY, HARD_DRIVE
+    }
+
+    private final LazySubsystem<CPU> cpu;
+    private final LazySubsystem<Memory> memory;
+    private final LazySubsystem<HardDrive> hardDrive;
 
     public ComputerFacade() {
-        this.cpu = new CPU();
-        this.memory = new Memory();
-        this.hardDrive = new HardDrive();
+        this(CPU::new, Memory::new, HardDrive::new);
+    }
+
+    public ComputerFacade(Supplier<CPU> cpu, Supplier<Memory> memory, Supplier<HardDrive> hardDrive) {
+        this.cpu = new LazySubsystem<>(cpu);
+        this.memory = new LazySubsystem<>(memory);
+        this.hardDrive = new LazySubsystem<>(hardDrive);
+    }
+
+    // Прежнее поведение: все подсистемы создаются сразу
+    public static ComputerFacade createEager() {
+        ComputerFacade facade = new ComputerFacade();
+        for (Subsystem subsystem : Subsystem.values()) {
+            facade.subsystem(subsystem).get();
+        }
+        return facade;
+    }
+
+    public CPU getCpu() {
+        return cpu.get();
+    }
+
+    public Memory getMemory() {
+        return memory.get();
+    }
+
+    public HardDrive getHardDrive() {
+        return hardDrive.get();
+    }
+
+    public boolean isInitialized(Subsystem subsystem) {
+        return subsystem(subsystem).isInitialized();
+    }
+
+    // Создает выбранные подсистемы в фоновых потоках; будущее завершается, когда все они готовы
+    public CompletableFuture<Void> warmUp(Subsystem... subsystems) {
+        return warmUp(ForkJoinPool.commonPool(), subsystems);
+    }
+
+    public CompletableFuture<Void> warmUp(Executor executor, Subsystem... subsystems) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[subsystems.length];
+        for (int i = 0; i < subsystems.length; i++) {
+            LazySubsystem<?> subsystem = subsystem(subsystems[i]);
+            futures[i] = CompletableFuture.runAsync(subsystem::get, executor);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    private LazySubsystem<?> subsystem(Subsystem subsystem) {
+        switch (subsystem) {
+            case PROCESSOR:
+                return cpu;
+            case MEMORY:
+                return memory;
+            case HARD_DRIVE:
+                return hardDrive;
+            default:
+                throw new IllegalArgumentException("Unknown subsystem: " + subsystem);
+        }
     }
 
     public void start() {
-        cpu.processData();
-        memory.load();
-        hardDrive.readData();
+        getCpu().processData();
+        getMemory().load();
+        getHardDrive().readData();
         System.out.println("Computer is starting...");
     }
+
+    // Запуск по графу зависимостей: CPU не зависит от дисковой цепочки и стартует параллельно с ней,
+    // а память загружает данные только после чтения с диска
+    public Map<String, Double> startParallel() {
+        Map<String, Double> timings = new StartupGraph()
+                .stage("hardDrive", () -> getHardDrive().readData())
+                .stage("memory", () -> getMemory().load(), "hardDrive")
+                .stage("cpu", () -> getCpu().processData())
+                .run();
+        System.out.println("Computer is starting...");
+        return timings;
+    }
+
+    // Конвейер: диск читает в фоновом потоке, процессор обрабатывает в вызывающем,
+    // буферы переходят от этапа к этапу без копирования.
+    // Контрольная сумма CPU, очередь Memory и буферы HardDrive у фасада одни на всех, поэтому вызовы
+    // выполняются по очереди: одновременные вызовы из разных потоков ждут завершения текущего файла.
+    public synchronized PipelineReport processFile(Path file) throws IOException {
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        CPU cpu = getCpu();
+        Memory memory = getMemory();
+        HardDrive hardDrive = getHardDrive();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            cpu.reset();
+            long start = System.nanoTime();
+            Future<Void> reading = reader.submit(() -> {
+                hardDrive.readData(channel, memory);
+                return null;
+            });
+            long bytes = 0;
+            boolean completed = false;
+            try {
+                ByteBuffer buffer;
+                while ((buffer = memory.take()) != Memory.END_OF_DATA) {
+                    bytes += buffer.remaining();
+                    cpu.processData(buffer);
+                    hardDrive.release(buffer);
+                }
+                reading.get();
+                completed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("File processing interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Reading " + file + " failed", e.getCause());
+            } finally {
+                if (!completed) {
+                    abort(reader);
+                }
+            }
+            return new PipelineReport(bytes, System.nanoTime() - start, cpu.getChecksum());
+        } finally {
+            reader.shutdownNow();
+        }
+    }
+
+    // Останавливает чтение и возвращает конвейер в исходное состояние. Вызывается только из processFile,
+    // поэтому сброс очереди и буферов не задевает обработку другого файла.
+    private void abort(ExecutorService reader) {
+        reader.shutdownNow();
+        try {
+            reader.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        getMemory().clear();
+        getHardDrive().resetBuffers();
+    }
+}
+
+// Сравнение времени запуска: жадное создание всех подсистем, ленивое создание с обращением
+// только к процессору и первая обработка файла без прогрева и после прогрева
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.FacadeStartupBenchmark" -Dexec.args="200"
+class FacadeStartupBenchmark {
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        ByteBuffer sample = ByteBuffer.allocateDirect(4096);
+        Path file = Files.createTempFile("facade-startup", ".bin");
+        try {
+            Files.write(file, new byte[64 << 10]);
+            BenchmarkSupport.runWithWarmUp(suffix -> {
+                long eager = 0;
+                long lazy = 0;
+                long coldFile = 0;
+                long warmedFile = 0;
+                for (int i = 0; i < iterations; i++) {
+                    long start = System.nanoTime();
+                    ComputerFacade.createEager().getCpu().processData(sample.clear());
+                    eager += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    new ComputerFacade().getCpu().processData(sample.clear());
+                    lazy += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    new ComputerFacade().processFile(file);
+                    coldFile += System.nanoTime() - start;
+
+                    ComputerFacade facade = new ComputerFacade();
+                    facade.warmUp(ComputerFacade.Subsystem.values()).join();
+                    start = System.nanoTime();
+                    facade.processFile(file);
+                    warmedFile += System.nanoTime() - start;
+                }
+                report("eager start + CPU call" + suffix, eager, iterations);
+                report("lazy start + CPU call" + suffix, lazy, iterations);
+                report("first file, cold" + suffix, coldFile, iterations);
+                report("first file, after warm-up" + suffix, warmedFile, iterations);
+            });
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void report(String label, long totalNanos, int iterations) {
+        System.out.printf("%-38s %9.1f us%n", label, totalNanos / 1e3 / iterations);
+    }
 }
 
 // Пример использования
 public class FacadePattern {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         ComputerFacade computerFacade = new ComputerFacade();
+        // Подсистемы еще не созданы; прогреваем диск заранее, остальные создадутся при первом обращении
+        System.out.println("Hard drive ready: " + computerFacade.isInitialized(ComputerFacade.Subsystem.HARD_DRIVE));
+        computerFacade.warmUp(ComputerFacade.Subsystem.HARD_DRIVE).join();
+        System.out.println("Hard drive ready: " + computerFacade.isInitialized(ComputerFacade.Subsystem.HARD_DRIVE)
+                + ", CPU ready: " + computerFacade.isInitialized(ComputerFacade.Subsystem.PROCESSOR));
         computerFacade.start();
+
+        System.out.println("\nParallel start-up:");
+        Map<String, Double> timings = computerFacade.startParallel();
+        timings.forEach((stage, millis) -> System.out.printf("  %-10s %.3f ms%n", stage, millis));
+
+        // Конвейер обработки файла с отчетом о пропускной способности
+        Path file = Files.createTempFile("facade", ".bin");
+        try {
+            Files.write(file, new byte[32 << 20]);
+            PipelineReport report = computerFacade.processFile(file);
+            System.out.printf("%nProcessed %d MB at %.0f MB/s (CRC32C %08x)%n",
+                    report.getBytes() >> 20, report.getMegabytesPerSecond(), report.getChecksum());
+        } finally {
+            Files.deleteIfExists(file);
+        }
     }
 }
 /*  В этом примере фасад ComputerFacade предоставляет унифицированный интерфейс для запуска компьютера.
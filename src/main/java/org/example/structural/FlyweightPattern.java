@@ -1,9 +1,30 @@
 package org.example.structural;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /*    Паттерн Легковес (Flyweight) относится к категории структурных паттернов проектирования и используется для эффективной
 поддержки большого числа мелких объектов за счет разделения общего состояния объектов. Flyweight позволяет экономить память,
@@ -28,44 +49,338 @@ import java.util.Map;
 которые можно разделить, и уникальные характеристики (координаты), которые нужно хранить отдельно.*/
 
 // Легковес - Тип дерева
+// Равенство по значению: два экземпляра с одинаковыми name/color/texture описывают один и тот же тип
 class TreeType {
-    private String name;
-    private String color;
-    private String texture;
+    private final String name;
+    private final String color;
+    private final String texture;
+    private final int hash;
 
     public TreeType(String name, String color, String texture) {
         this.name = name;
         this.color = color;
         this.texture = texture;
+        this.hash = Objects.hash(name, color, texture);
     }
 
     public void draw(int x, int y) {
         System.out.println("Drawing tree '" + name + "' of color '" + color + 
                           "' with texture '" + texture + "' at position (" + x + ", " + y + ")");
     }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public String getTexture() {
+        return texture;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TreeType)) {
+            return false;
+        }
+        TreeType other = (TreeType) o;
+        return hash == other.hash && name.equals(other.name) && color.equals(other.color) && texture.equals(other.texture);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
 }
 
 // Фабрика легковесов
+// Потокобезопасный пул: вложенные карты name -> color -> texture, поэтому при попадании в кэш
+// не создается составной ключ и вообще ничего не аллоцируется. Каждый TreeType создается ровно один раз.
 class TreeFactory {
-    private static Map<String, TreeType> treeTypes = new HashMap<>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, TreeType>>> treeTypes =
+            new ConcurrentHashMap<>();
+    private static final LongAdder requests = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    // Если задан, фабрика работает через ограниченный кэш вместо неограниченного пула
+    private static volatile TreeTypeCache boundedCache;
 
     public static TreeType getTreeType(String name, String color, String texture) {
-        String key = name + "_" + color + "_" + texture;
-        TreeType type = treeTypes.get(key);
+        TreeTypeCache cache = boundedCache;
+        if (cache != null) {
+            return cache.get(name, color, texture);
+        }
+        requests.increment();
+        ConcurrentMap<String, ConcurrentMap<String, TreeType>> colors = treeTypes.get(name);
+        if (colors != null) {
+            ConcurrentMap<String, TreeType> textures = colors.get(color);
+            if (textures != null) {
+                TreeType type = textures.get(texture);
+                if (type != null) {
+                    return type;
+                }
+            }
+        }
+        return create(name, color, texture);
+    }
 
-        if (type == null) {
-            type = new TreeType(name, color, texture);
-            treeTypes.put(key, type);
-            System.out.println("Creating new TreeType: " + key);
-        } else {
-            System.out.println("Reusing existing TreeType: " + key);
+    // Уже созданный пулом тип или null; ничего не создает и не влияет на счетчики
+    static TreeType findPooled(String name, String color, String texture) {
+        ConcurrentMap<String, ConcurrentMap<String, TreeType>> colors = treeTypes.get(name);
+        ConcurrentMap<String, TreeType> textures = colors != null ? colors.get(color) : null;
+        return textures != null ? textures.get(texture) : null;
+    }
+
+    // Медленный путь: computeIfAbsent гарантирует, что при гонке потоков тип будет создан один раз
+    private static TreeType create(String name, String color, String texture) {
+        return treeTypes.computeIfAbsent(name, n -> new ConcurrentHashMap<>())
+                .computeIfAbsent(color, c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(texture, t -> {
+                    misses.increment();
+                    System.out.println("Creating new TreeType: " + name + "_" + color + "_" + texture);
+                    return new TreeType(name, color, texture);
+                });
+    }
+
+    // Переключает фабрику на ограниченный кэш; null возвращает неограниченный пул.
+    // Неограниченный пул не очищается: после возврата к нему фабрика выдает те же экземпляры TreeType, что и раньше.
+    public static void setBoundedCache(TreeTypeCache cache) {
+        boundedCache = cache;
+    }
+
+    // Количество типов в активном хранилище: ограниченном кэше или неограниченном пуле
+    public static int getTreeTypeCount() {
+        TreeTypeCache cache = boundedCache;
+        if (cache != null) {
+            return cache.size();
         }
+        int count = 0;
+        for (ConcurrentMap<String, ConcurrentMap<String, TreeType>> colors : treeTypes.values()) {
+            for (ConcurrentMap<String, TreeType> textures : colors.values()) {
+                count += textures.size();
+            }
+        }
+        return count;
+    }
+
+    // Счетчики попаданий и промахов относятся к активному хранилищу
+    public static long getHitCount() {
+        TreeTypeCache cache = boundedCache;
+        return cache != null ? cache.getHitCount() : requests.sum() - misses.sum();
+    }
+
+    public static long getMissCount() {
+        TreeTypeCache cache = boundedCache;
+        return cache != null ? cache.getMissCount() : misses.sum();
+    }
+}
 
+// Ограниченный кэш легковесов TreeType. Размер ограничен maxEntries, при переполнении вытесняется
+// давно не использованный (LRU) или самый старый (FIFO) тип. Значения могут храниться через мягкие
+// или слабые ссылки, тогда сборщик мусора может забрать неиспользуемые типы раньше.
+// Вытеснение не порождает второй экземпляр того же типа: при промахе кэш берет тип из пула TreeFactory
+// или среди вытесненных, но еще используемых экземпляров, и создает новый, только если живого нет.
+class TreeTypeCache {
+    enum EvictionPolicy { LRU, FIFO }
+
+    enum Retention { STRONG, SOFT, WEAK }
+
+    private final int maxEntries;
+    private final Retention retention;
+    private final LinkedHashMap<Key, Holder> entries;
+    // Вытесненные типы через слабые ссылки: пока на тип ссылается клиент, кэш вернет тот же экземпляр
+    private final Map<Key, WeakHolder> released = new HashMap<>();
+    private final ReferenceQueue<TreeType> collected = new ReferenceQueue<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long collections;
+
+    public TreeTypeCache(int maxEntries, EvictionPolicy policy, Retention retention) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.retention = retention;
+        this.entries = new LinkedHashMap<>(16, 0.75f, policy == EvictionPolicy.LRU) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Holder> eldest) {
+                if (size() > TreeTypeCache.this.maxEntries) {
+                    evictions++;
+                    release(eldest.getKey(), eldest.getValue().get());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized TreeType get(String name, String color, String texture) {
+        purgeCollected();
+        Key key = new Key(name, color, texture);
+        Holder holder = entries.get(key);
+        TreeType type = holder != null ? holder.get() : null;
+        if (type != null) {
+            hits++;
+            return type;
+        }
+        misses++;
+        type = canonical(key);
+        entries.put(key, wrap(key, type));
         return type;
     }
 
-    public static int getTreeTypeCount() {
-        return treeTypes.size();
+    public synchronized int size() {
+        purgeCollected();
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    // Вытеснения по превышению размера
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    // Записи, чьи TreeType забрал сборщик мусора (только для SOFT и WEAK)
+    public synchronized long getCollectedCount() {
+        purgeCollected();
+        return collections;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    // Живой экземпляр типа, выданный раньше пулом или этим кэшем, либо новый
+    private TreeType canonical(Key key) {
+        TreeType type = TreeFactory.findPooled(key.name, key.color, key.texture);
+        if (type != null) {
+            return type;
+        }
+        WeakHolder previous = released.remove(key);
+        type = previous != null ? previous.get() : null;
+        return type != null ? type : new TreeType(key.name, key.color, key.texture);
+    }
+
+    private void release(Key key, TreeType type) {
+        if (type != null) {
+            released.put(key, new WeakHolder(key, type, collected));
+        }
+    }
+
+    private Holder wrap(Key key, TreeType type) {
+        switch (retention) {
+            case SOFT:
+                return new SoftHolder(key, type, collected);
+            case WEAK:
+                return new WeakHolder(key, type, collected);
+            default:
+                return new StrongHolder(type);
+        }
+    }
+
+    private void purgeCollected() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            Key key = ((ReferenceHolder) reference).key();
+            // Запись могла быть уже вытеснена или заменена новой
+            if (entries.get(key) == reference) {
+                entries.remove(key);
+                collections++;
+            } else if (released.get(key) == reference) {
+                released.remove(key);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String name;
+        private final String color;
+        private final String texture;
+        private final int hash;
+
+        Key(String name, String color, String texture) {
+            this.name = name;
+            this.color = color;
+            this.texture = texture;
+            this.hash = Objects.hash(name, color, texture);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return name.equals(other.name) && color.equals(other.color) && texture.equals(other.texture);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private interface Holder {
+        TreeType get();
+    }
+
+    private interface ReferenceHolder extends Holder {
+        Key key();
+    }
+
+    private static final class StrongHolder implements Holder {
+        private final TreeType type;
+
+        StrongHolder(TreeType type) {
+            this.type = type;
+        }
+
+        public TreeType get() {
+            return type;
+        }
+    }
+
+    private static final class SoftHolder extends SoftReference<TreeType> implements ReferenceHolder {
+        private final Key key;
+
+        SoftHolder(Key key, TreeType type, ReferenceQueue<TreeType> queue) {
+            super(type, queue);
+            this.key = key;
+        }
+
+        public Key key() {
+            return key;
+        }
+    }
+
+    private static final class WeakHolder extends WeakReference<TreeType> implements ReferenceHolder {
+        private final Key key;
+
+        WeakHolder(Key key, TreeType type, ReferenceQueue<TreeType> queue) {
+            super(type, queue);
+            this.key = key;
+        }
+
+        public Key key() {
+            return key;
+        }
     }
 }
 
@@ -104,6 +419,877 @@ class Forest {
     }
 }
 
+// Посетитель деревьев колоночного леса: получает координаты и легковес без создания объекта дерева
+interface TreeVisitor {
+    void visit(int x, int y, TreeType type);
+}
+
+// Колоночный лес (structure of arrays): координаты в int[] x/y, тип - короткий идентификатор
+// в локальном словаре легковесов из TreeFactory. На дерево уходит 10 байт вместо объекта Tree и ссылки на него.
+class ColumnarForest {
+    // Идентификатор типа хранится в short и читается как беззнаковый, поэтому типов может быть до 65536
+    private static final int MAX_TYPES = 1 << 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private int[] x;
+    private int[] y;
+    private short[] typeIds;
+    private int count;
+
+    private TreeType[] types = new TreeType[16];
+    // Ключ - значение типа, а не экземпляр: разные экземпляры одного типа получают один идентификатор
+    private final Map<TreeType, Integer> typeIndex = new HashMap<>();
+
+    public ColumnarForest() {
+        this(16);
+    }
+
+    public ColumnarForest(int expectedTrees) {
+        int capacity = Math.max(expectedTrees, 1);
+        x = new int[capacity];
+        y = new int[capacity];
+        typeIds = new short[capacity];
+    }
+
+    public void plantTree(int x, int y, String name, String color, String texture) {
+        plantTree(x, y, TreeFactory.getTreeType(name, color, texture));
+    }
+
+    public void plantTree(int x, int y, TreeType type) {
+        short typeId = idOf(type);
+        ensureCapacity(count + 1);
+        this.x[count] = x;
+        this.y[count] = y;
+        typeIds[count] = typeId;
+        count++;
+    }
+
+    // Массовая посадка деревьев одного типа: копирование массивов без промежуточных объектов
+    public void plantTrees(int[] xs, int[] ys, int offset, int length, TreeType type) {
+        short typeId = idOf(type);
+        ensureCapacity(count + length);
+        System.arraycopy(xs, offset, x, count, length);
+        System.arraycopy(ys, offset, y, count, length);
+        Arrays.fill(typeIds, count, count + length, typeId);
+        count += length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getX(int index) {
+        return x[checkIndex(index)];
+    }
+
+    public int getY(int index) {
+        return y[checkIndex(index)];
+    }
+
+    public TreeType getType(int index) {
+        return types[typeIds[checkIndex(index)] & 0xFFFF];
+    }
+
+    public int getTypeCount() {
+        return typeIndex.size();
+    }
+
+    // Идентификатор типа дерева в локальном словаре леса, от 0 до getTypeCount() - 1
+    public int getTypeId(int index) {
+        return typeIds[checkIndex(index)] & 0xFFFF;
+    }
+
+    public TreeType getTypeById(int typeId) {
+        if (typeId < 0 || typeId >= typeIndex.size()) {
+            throw new IndexOutOfBoundsException("Type id " + typeId + " out of bounds for " + typeIndex.size() + " types");
+        }
+        return types[typeId];
+    }
+
+    public void forEach(TreeVisitor visitor) {
+        for (int i = 0; i < count; i++) {
+            visitor.visit(x[i], y[i], types[typeIds[i] & 0xFFFF]);
+        }
+    }
+
+    public void draw() {
+        System.out.println("\nDrawing columnar forest with " + count + " trees:");
+        forEach((treeX, treeY, type) -> type.draw(treeX, treeY));
+    }
+
+    // Освобождает неиспользуемый запас емкости после массовой загрузки
+    public void trimToSize() {
+        x = Arrays.copyOf(x, count);
+        y = Arrays.copyOf(y, count);
+        typeIds = Arrays.copyOf(typeIds, count);
+    }
+
+    private short idOf(TreeType type) {
+        Integer id = typeIndex.get(type);
+        if (id == null) {
+            id = typeIndex.size();
+            if (id == MAX_TYPES) {
+                throw new IllegalStateException("Columnar forest supports at most " + MAX_TYPES + " tree types");
+            }
+            if (id == types.length) {
+                types = Arrays.copyOf(types, types.length * 2);
+            }
+            types[id] = type;
+            typeIndex.put(type, id);
+        }
+        return (short) id.intValue();
+    }
+
+    private void ensureCapacity(int required) {
+        if (required < 0 || required > MAX_CAPACITY) {
+            throw new IllegalStateException("Forest cannot hold " + required + " trees");
+        }
+        if (required > x.length) {
+            int capacity = (int) Math.min(MAX_CAPACITY, Math.max(required, x.length + (long) (x.length >> 1)));
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            typeIds = Arrays.copyOf(typeIds, capacity);
+        }
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Tree " + index + " out of bounds for forest of " + count + " trees");
+        }
+        return index;
+    }
+}
+
+// Лес с пространственным индексом: равномерная сетка ячеек cellSize x cellSize поверх ColumnarForest.
+// Хранятся только непустые ячейки, каждая - растущий массив индексов деревьев. Индекс обновляется при посадке.
+class SpatialForest {
+    private final ColumnarForest forest;
+    private final int cellSize;
+    private final Map<Long, Cell> cells = new HashMap<>();
+    // Границы занятых ячеек, ограничивают поиск ближайшего соседа
+    private int minCellX = Integer.MAX_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+    public SpatialForest(int cellSize) {
+        this(new ColumnarForest(), cellSize);
+    }
+
+    // Индексирует уже посаженные деревья; дальше лес нужно пополнять только через этот объект
+    public SpatialForest(ColumnarForest forest, int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        this.forest = forest;
+        this.cellSize = cellSize;
+        for (int i = 0; i < forest.size(); i++) {
+            index(i);
+        }
+    }
+
+    public void plantTree(int x, int y, String name, String color, String texture) {
+        plantTree(x, y, TreeFactory.getTreeType(name, color, texture));
+    }
+
+    public void plantTree(int x, int y, TreeType type) {
+        forest.plantTree(x, y, type);
+        index(forest.size() - 1);
+    }
+
+    public void plantTrees(int[] xs, int[] ys, int offset, int length, TreeType type) {
+        int first = forest.size();
+        forest.plantTrees(xs, ys, offset, length, type);
+        for (int i = first; i < forest.size(); i++) {
+            index(i);
+        }
+    }
+
+    public ColumnarForest getForest() {
+        return forest;
+    }
+
+    // Обходит деревья в прямоугольнике [minX, maxX] x [minY, maxY], возвращает их количество
+    public int queryRegion(int minX, int minY, int maxX, int maxY, TreeVisitor visitor) {
+        int fromX = Math.floorDiv(minX, cellSize);
+        int fromY = Math.floorDiv(minY, cellSize);
+        int toX = Math.floorDiv(maxX, cellSize);
+        int toY = Math.floorDiv(maxY, cellSize);
+        int found = 0;
+        long cellsInRegion = ((long) toX - fromX + 1) * ((long) toY - fromY + 1);
+        if (cellsInRegion > cells.size()) {
+            // Регион больше, чем число занятых ячеек: дешевле перебрать сами ячейки
+            for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+                int cellX = (int) (entry.getKey() >> 32);
+                int cellY = (int) (long) entry.getKey();
+                if (cellX >= fromX && cellX <= toX && cellY >= fromY && cellY <= toY) {
+                    found += entry.getValue().visit(minX, minY, maxX, maxY, visitor);
+                }
+            }
+        } else {
+            for (int cellX = fromX; cellX <= toX; cellX++) {
+                for (int cellY = fromY; cellY <= toY; cellY++) {
+                    Cell cell = cells.get(key(cellX, cellY));
+                    if (cell != null) {
+                        found += cell.visit(minX, minY, maxX, maxY, visitor);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    // Индекс ближайшего к точке дерева или -1, если лес пуст. Ячейки просматриваются кольцами вокруг точки,
+    // пока следующее кольцо не может оказаться ближе уже найденного дерева. Если в кольце больше ячеек,
+    // чем занято во всем лесу, оставшиеся занятые ячейки перебираются напрямую, как в queryRegion.
+    public int nearest(int x, int y) {
+        if (cells.isEmpty()) {
+            return -1;
+        }
+        int centerX = Math.floorDiv(x, cellSize);
+        int centerY = Math.floorDiv(y, cellSize);
+        long maxRing = Math.max(
+                Math.max(Math.abs((long) centerX - minCellX), Math.abs((long) maxCellX - centerX)),
+                Math.max(Math.abs((long) centerY - minCellY), Math.abs((long) maxCellY - centerY)));
+        // [0] - индекс лучшего дерева, [1] - квадрат расстояния до него
+        long[] best = {-1, Long.MAX_VALUE};
+        for (long ring = 0; ring <= maxRing; ring++) {
+            long ringCells = ring == 0 ? 1 : 8 * ring;
+            if (ringCells > cells.size()) {
+                scanOccupiedCells(x, y, centerX, centerY, ring, best);
+                break;
+            }
+            for (long cellX = centerX - ring; cellX <= centerX + ring; cellX++) {
+                boolean edgeColumn = cellX == centerX - ring || cellX == centerX + ring;
+                long step = edgeColumn || ring == 0 ? 1 : 2 * ring;
+                for (long cellY = centerY - ring; cellY <= centerY + ring; cellY += step) {
+                    Cell cell = cells.get(key((int) cellX, (int) cellY));
+                    if (cell != null) {
+                        cell.closest(x, y, best);
+                    }
+                }
+            }
+            long reach = ring * cellSize;
+            if (best[0] >= 0 && best[1] <= reach * reach) {
+                break;
+            }
+        }
+        return (int) best[0];
+    }
+
+    // Перебирает занятые ячейки не ближе кольца fromRing; ячейки, которые заведомо дальше найденного дерева, пропускаются
+    private void scanOccupiedCells(int x, int y, int centerX, int centerY, long fromRing, long[] best) {
+        for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+            int cellX = (int) (entry.getKey() >> 32);
+            int cellY = (int) (long) entry.getKey();
+            long ring = Math.max(Math.abs((long) cellX - centerX), Math.abs((long) cellY - centerY));
+            if (ring < fromRing) {
+                continue;
+            }
+            long dx = gap(x, cellX);
+            long dy = gap(y, cellY);
+            if (dx * dx + dy * dy < best[1]) {
+                entry.getValue().closest(x, y, best);
+            }
+        }
+    }
+
+    // Расстояние по одной оси от координаты до ближайшей точки ячейки
+    private long gap(int coordinate, int cell) {
+        long low = (long) cell * cellSize;
+        long high = low + cellSize - 1;
+        return coordinate < low ? low - coordinate : coordinate > high ? coordinate - high : 0;
+    }
+
+    // Рисует только деревья, попавшие в область просмотра
+    public void draw(int minX, int minY, int maxX, int maxY) {
+        System.out.println("\nDrawing viewport (" + minX + ", " + minY + ") - (" + maxX + ", " + maxY + "):");
+        int drawn = queryRegion(minX, minY, maxX, maxY, (treeX, treeY, type) -> type.draw(treeX, treeY));
+        System.out.println("Drawn " + drawn + " of " + forest.size() + " trees");
+    }
+
+    private void index(int tree) {
+        int cellX = Math.floorDiv(forest.getX(tree), cellSize);
+        int cellY = Math.floorDiv(forest.getY(tree), cellSize);
+        cells.computeIfAbsent(key(cellX, cellY), k -> new Cell()).add(tree);
+        minCellX = Math.min(minCellX, cellX);
+        minCellY = Math.min(minCellY, cellY);
+        maxCellX = Math.max(maxCellX, cellX);
+        maxCellY = Math.max(maxCellY, cellY);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    // Ячейка сетки: индексы деревьев в растущем массиве
+    private class Cell {
+        private int[] trees = new int[4];
+        private int size;
+
+        void add(int tree) {
+            if (size == trees.length) {
+                trees = Arrays.copyOf(trees, size * 2);
+            }
+            trees[size++] = tree;
+        }
+
+        // Обновляет best, если в ячейке есть дерево ближе к точке
+        void closest(int x, int y, long[] best) {
+            for (int i = 0; i < size; i++) {
+                int tree = trees[i];
+                long dx = (long) forest.getX(tree) - x;
+                long dy = (long) forest.getY(tree) - y;
+                long distance = dx * dx + dy * dy;
+                if (distance < best[1]) {
+                    best[1] = distance;
+                    best[0] = tree;
+                }
+            }
+        }
+
+        int visit(int minX, int minY, int maxX, int maxY, TreeVisitor visitor) {
+            int found = 0;
+            for (int i = 0; i < size; i++) {
+                int tree = trees[i];
+                int treeX = forest.getX(tree);
+                int treeY = forest.getY(tree);
+                if (treeX >= minX && treeX <= maxX && treeY >= minY && treeY <= maxY) {
+                    visitor.visit(treeX, treeY, forest.getType(tree));
+                    found++;
+                }
+            }
+            return found;
+        }
+    }
+}
+
+// Запросы области просмотра и ближайшего соседа через сетку против полного перебора леса.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.SpatialForestBenchmark" -Dexec.args="5000000"
+class SpatialForestBenchmark {
+    private static final int WORLD_SIZE = 1_000_000;
+    private static final int VIEWPORT = 2_000;
+    private static final int QUERIES = 1_000;
+
+    public static void main(String[] args) {
+        int trees = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Random random = new Random(42);
+        TreeType oak = TreeFactory.getTreeType("Oak", "Green", "Rough");
+        SpatialForest spatial = new SpatialForest(new ColumnarForest(trees), 1_000);
+        long plantStart = System.nanoTime();
+        for (int i = 0; i < trees; i++) {
+            spatial.plantTree(random.nextInt(WORLD_SIZE), random.nextInt(WORLD_SIZE), oak);
+        }
+        System.out.printf("Planted and indexed %d trees in %.1f ms%n", trees, (System.nanoTime() - plantStart) / 1e6);
+
+        int[] counter = new int[1];
+        TreeVisitor count = (treeX, treeY, type) -> counter[0]++;
+        BenchmarkSupport.runWithWarmUp(suffix -> {
+            Random queries = new Random(7);
+            long start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                int minX = queries.nextInt(WORLD_SIZE - VIEWPORT);
+                int minY = queries.nextInt(WORLD_SIZE - VIEWPORT);
+                spatial.queryRegion(minX, minY, minX + VIEWPORT, minY + VIEWPORT, count);
+            }
+            report("grid viewport query" + suffix, start);
+
+            queries = new Random(7);
+            ColumnarForest forest = spatial.getForest();
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES / 10; q++) {
+                int minX = queries.nextInt(WORLD_SIZE - VIEWPORT);
+                int minY = queries.nextInt(WORLD_SIZE - VIEWPORT);
+                int maxX = minX + VIEWPORT;
+                int maxY = minY + VIEWPORT;
+                forest.forEach((treeX, treeY, type) -> {
+                    if (treeX >= minX && treeX <= maxX && treeY >= minY && treeY <= maxY) {
+                        counter[0]++;
+                    }
+                });
+            }
+            report("full scan viewport query" + suffix, start, QUERIES / 10);
+
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                counter[0] += spatial.nearest(queries.nextInt(WORLD_SIZE), queries.nextInt(WORLD_SIZE));
+            }
+            report("grid nearest neighbour" + suffix, start);
+        });
+        System.out.println("(checksum " + counter[0] + ")");
+    }
+
+    private static void report(String label, long startNanos) {
+        report(label, startNanos, QUERIES);
+    }
+
+    private static void report(String label, long startNanos, int queries) {
+        System.out.printf("%-38s %10.3f ms/query%n", label, (System.nanoTime() - startNanos) / 1e6 / queries);
+    }
+}
+
+// Растеризатор леса в RGB-буфер вне кучи (direct ByteBuffer). Изображение делится на квадратные плитки,
+// которые рисуются параллельно: каждая плитка пишет только в свои пиксели, поэтому синхронизация не нужна.
+// Внешний вид (спрайт) вычисляется один раз на каждый TreeType, а не на каждое дерево.
+class ForestRasterizer {
+    static final int SPRITE_RADIUS = 3;
+    private static final int SPRITE_SIZE = 2 * SPRITE_RADIUS + 1;
+    private static final int BACKGROUND = 0x6B4F2A;
+    private static final Map<String, Integer> KNOWN_COLORS = Map.of(
+            "Green", 0x2E8B2E,
+            "Dark Green", 0x145214,
+            "Yellow", 0xD8C838,
+            "Red", 0xB83224,
+            "White", 0xE8E8E0);
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final ByteBuffer pixels;
+
+    public ForestRasterizer(int width, int height, int tileSize) {
+        if ((long) width * height * 3 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image " + width + "x" + height + " does not fit in one buffer");
+        }
+        if (tileSize <= SPRITE_RADIUS) {
+            throw new IllegalArgumentException("Tile size must be larger than the sprite radius: " + tileSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.pixels = ByteBuffer.allocateDirect(width * height * 3);
+    }
+
+    public ByteBuffer getPixels() {
+        return pixels.asReadOnlyBuffer();
+    }
+
+    public void render(ColumnarForest forest) {
+        int[][] sprites = new int[forest.getTypeCount()][];
+        for (int typeId = 0; typeId < sprites.length; typeId++) {
+            sprites[typeId] = sprite(forest.getTypeById(typeId));
+        }
+
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        // Раскладываем деревья по плиткам, которых касается их спрайт (обычно одна, у границы до четырех),
+        // сортировкой подсчетом в отдельные колонки: данные плитки t лежат в [offsets[t], offsets[t + 1])
+        int[] offsets = new int[tilesX * tilesY + 1];
+        for (int i = 0; i < forest.size(); i++) {
+            forEachTouchedTile(forest.getX(i), forest.getY(i), tilesX, tile -> offsets[tile + 1]++);
+        }
+        for (int t = 0; t < tilesX * tilesY; t++) {
+            offsets[t + 1] += offsets[t];
+        }
+        int binned = offsets[tilesX * tilesY];
+        int[] binX = new int[binned];
+        int[] binY = new int[binned];
+        int[] binType = new int[binned];
+        int[] fill = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int i = 0; i < forest.size(); i++) {
+            int x = forest.getX(i);
+            int y = forest.getY(i);
+            int typeId = forest.getTypeId(i);
+            forEachTouchedTile(x, y, tilesX, tile -> {
+                int slot = fill[tile]++;
+                binX[slot] = x;
+                binY[slot] = y;
+                binType[slot] = typeId;
+            });
+        }
+
+        IntStream.range(0, tilesX * tilesY).parallel()
+                .forEach(tile -> renderTile(sprites, offsets, binX, binY, binType, tile % tilesX, tile / tilesX));
+    }
+
+    // Формат PPM (P6): текстовый заголовок и сырые RGB-байты
+    public void writePpm(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII)));
+            ByteBuffer data = pixels.duplicate();
+            data.clear();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    // Плитка собирается в рабочем массиве в куче и затем построчно копируется в буфер вне кучи
+    private void renderTile(int[][] sprites, int[] offsets, int[] binX, int[] binY, int[] binType, int tileX, int tileY) {
+        int minX = tileX * tileSize;
+        int minY = tileY * tileSize;
+        int tileWidth = Math.min(tileSize, width - minX);
+        int tileHeight = Math.min(tileSize, height - minY);
+        int[] tile = new int[tileWidth * tileHeight];
+        Arrays.fill(tile, BACKGROUND);
+        int tileIndex = tileY * ((width + tileSize - 1) / tileSize) + tileX;
+        for (int k = offsets[tileIndex]; k < offsets[tileIndex + 1]; k++) {
+            drawSprite(tile, tileWidth, tileHeight, sprites[binType[k]], binX[k] - minX, binY[k] - minY);
+        }
+        byte[] row = new byte[tileWidth * 3];
+        for (int y = 0; y < tileHeight; y++) {
+            for (int x = 0; x < tileWidth; x++) {
+                int rgb = tile[y * tileWidth + x];
+                row[x * 3] = (byte) (rgb >> 16);
+                row[x * 3 + 1] = (byte) (rgb >> 8);
+                row[x * 3 + 2] = (byte) rgb;
+            }
+            pixels.put(((minY + y) * width + minX) * 3, row, 0, row.length);
+        }
+    }
+
+    // Координаты центра заданы относительно плитки
+    private static void drawSprite(int[] tile, int tileWidth, int tileHeight, int[] sprite, int centerX, int centerY) {
+        int fromX = Math.max(centerX - SPRITE_RADIUS, 0);
+        int toX = Math.min(centerX + SPRITE_RADIUS + 1, tileWidth);
+        int fromY = Math.max(centerY - SPRITE_RADIUS, 0);
+        int toY = Math.min(centerY + SPRITE_RADIUS + 1, tileHeight);
+        for (int y = fromY; y < toY; y++) {
+            int spriteRow = (y - centerY + SPRITE_RADIUS) * SPRITE_SIZE - centerX + SPRITE_RADIUS;
+            int tileRow = y * tileWidth;
+            for (int x = fromX; x < toX; x++) {
+                int argb = sprite[spriteRow + x];
+                if (argb >>> 24 != 0) {
+                    tile[tileRow + x] = argb & 0xFFFFFF;
+                }
+            }
+        }
+    }
+
+    // Отсекается по границам спрайта, а не центра: дерево чуть за краем изображения рисуется частично
+    private void forEachTouchedTile(int x, int y, int tilesX, IntConsumer action) {
+        if (x < -SPRITE_RADIUS || y < -SPRITE_RADIUS || x - SPRITE_RADIUS >= width || y - SPRITE_RADIUS >= height) {
+            return;
+        }
+        int fromX = Math.max(x - SPRITE_RADIUS, 0) / tileSize;
+        int toX = Math.min(x + SPRITE_RADIUS, width - 1) / tileSize;
+        int fromY = Math.max(y - SPRITE_RADIUS, 0) / tileSize;
+        int toY = Math.min(y + SPRITE_RADIUS, height - 1) / tileSize;
+        for (int tileY = fromY; tileY <= toY; tileY++) {
+            for (int tileX = fromX; tileX <= toX; tileX++) {
+                action.accept(tileY * tilesX + tileX);
+            }
+        }
+    }
+
+    // Круглая крона цвета типа; шероховатая текстура затемняет часть пикселей. Прозрачные пиксели имеют альфу 0.
+    static int[] sprite(TreeType type) {
+        int rgb = KNOWN_COLORS.getOrDefault(type.getColor(), type.getColor().hashCode() & 0xFFFFFF);
+        boolean rough = type.getTexture().equalsIgnoreCase("Rough");
+        int shade = (rgb >> 1) & 0x7F7F7F;
+        int[] sprite = new int[SPRITE_SIZE * SPRITE_SIZE];
+        for (int dy = -SPRITE_RADIUS; dy <= SPRITE_RADIUS; dy++) {
+            for (int dx = -SPRITE_RADIUS; dx <= SPRITE_RADIUS; dx++) {
+                if (dx * dx + dy * dy > SPRITE_RADIUS * SPRITE_RADIUS) {
+                    continue;
+                }
+                int pixel = rough && ((dx * 7 + dy * 3) & 3) == 0 ? shade : rgb;
+                sprite[(dy + SPRITE_RADIUS) * SPRITE_SIZE + dx + SPRITE_RADIUS] = 0xFF000000 | pixel;
+            }
+        }
+        return sprite;
+    }
+}
+
+// Пропускная способность растеризатора и выгрузка результата в PPM для проверки.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.ForestRasterizerBenchmark" -Dexec.args="10000000 forest.ppm"
+class ForestRasterizerBenchmark {
+    private static final int IMAGE_SIZE = 4096;
+
+    public static void main(String[] args) throws IOException {
+        int trees = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Path output = args.length > 1 ? Path.of(args[1]) : Files.createTempFile("forest", ".ppm");
+
+        Random random = new Random(42);
+        TreeType[] types = {
+                TreeFactory.getTreeType("Oak", "Green", "Rough"),
+                TreeFactory.getTreeType("Pine", "Dark Green", "Smooth"),
+                TreeFactory.getTreeType("Birch", "Yellow", "Smooth"),
+                TreeFactory.getTreeType("Maple", "Red", "Rough")};
+        ColumnarForest forest = new ColumnarForest(trees);
+        for (int i = 0; i < trees; i++) {
+            forest.plantTree(random.nextInt(IMAGE_SIZE), random.nextInt(IMAGE_SIZE), types[random.nextInt(types.length)]);
+        }
+
+        ForestRasterizer rasterizer = new ForestRasterizer(IMAGE_SIZE, IMAGE_SIZE, 256);
+        BenchmarkSupport.runWithWarmUp(suffix -> {
+            long start = System.nanoTime();
+            rasterizer.render(forest);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Rendered %d trees into %dx%d in %.3f s: %.1f M trees/s%s%n",
+                    trees, IMAGE_SIZE, IMAGE_SIZE, seconds, trees / seconds / 1e6, suffix);
+        });
+        rasterizer.writePpm(output);
+        System.out.println("Image written to " + output);
+    }
+}
+
+// Двоичный формат леса для быстрого сохранения и отображения в память:
+//   заголовок: magic "FRST", версия (int), число типов (int), число деревьев (long),
+//   словарь типов: для каждого TreeType три строки name/color/texture (длина short + UTF-8),
+//   записи фиксированной ширины RECORD_SIZE: x (int), y (int), идентификатор типа (short).
+// Порядок байтов - big-endian, как у ByteBuffer по умолчанию.
+class ForestFile {
+    static final int MAGIC = 0x46525354;
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 10;
+    // Строка словаря хранится с длиной в 2 байта без знака
+    static final int MAX_STRING_BYTES = 0xFFFF;
+    // Идентификатор типа в записи - 2 байта без знака
+    static final int MAX_TYPES = 1 << 16;
+    private static final int FIXED_HEADER_SIZE = 20;
+
+    public static void write(ColumnarForest forest, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(1 << 16);
+            header.putInt(MAGIC).putInt(VERSION).putInt(forest.getTypeCount()).putLong(forest.size());
+            for (int typeId = 0; typeId < forest.getTypeCount(); typeId++) {
+                TreeType type = forest.getTypeById(typeId);
+                for (String value : new String[]{type.getName(), type.getColor(), type.getTexture()}) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    if (bytes.length > MAX_STRING_BYTES) {
+                        throw new IllegalArgumentException("Tree type string longer than " + MAX_STRING_BYTES
+                                + " UTF-8 bytes cannot be stored: " + value.substring(0, 32) + "...");
+                    }
+                    if (header.remaining() < bytes.length + 2) {
+                        header = grow(header, bytes.length + 2);
+                    }
+                    header.putShort((short) bytes.length).put(bytes);
+                }
+            }
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer records = ByteBuffer.allocateDirect(RECORD_SIZE * 65_536);
+            for (int i = 0; i < forest.size(); i++) {
+                if (records.remaining() < RECORD_SIZE) {
+                    records.flip();
+                    writeFully(channel, records);
+                    records.clear();
+                }
+                records.putInt(forest.getX(i)).putInt(forest.getY(i)).putShort((short) forest.getTypeId(i));
+            }
+            records.flip();
+            writeFully(channel, records);
+        }
+    }
+
+    // Открытие читает только заголовок и словарь, записи отображаются в память и подгружаются ОС по мере обращения
+    public static MappedForest open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_SIZE);
+            readFully(channel, fixed, 0);
+            if (fixed.getInt() != MAGIC) {
+                throw new IOException("Not a forest file: " + path);
+            }
+            int version = fixed.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported forest file version " + version + ": " + path);
+            }
+            int typeCount = fixed.getInt();
+            long treeCount = fixed.getLong();
+            // Каждый тип занимает в словаре не меньше трех длин по 2 байта; проверка до выделения массивов
+            long fileSize = channel.size();
+            if (typeCount < 0 || typeCount > MAX_TYPES || typeCount > (fileSize - FIXED_HEADER_SIZE) / 6
+                    || treeCount < 0 || treeCount > fileSize / RECORD_SIZE || (treeCount > 0 && typeCount == 0)) {
+                throw corrupt(path);
+            }
+
+            long position = fixed.capacity();
+            TreeType[] types = new TreeType[typeCount];
+            ByteBuffer length = ByteBuffer.allocate(2);
+            for (int typeId = 0; typeId < typeCount; typeId++) {
+                String[] values = new String[3];
+                for (int k = 0; k < values.length; k++) {
+                    length.clear();
+                    readFully(channel, length, position);
+                    ByteBuffer bytes = ByteBuffer.allocate(length.getShort() & 0xFFFF);
+                    readFully(channel, bytes, position + 2);
+                    values[k] = new String(bytes.array(), StandardCharsets.UTF_8);
+                    position += 2 + bytes.capacity();
+                }
+                types[typeId] = TreeFactory.getTreeType(values[0], values[1], values[2]);
+            }
+
+            if (fileSize < position + treeCount * RECORD_SIZE) {
+                throw new IOException("Truncated forest file: " + path);
+            }
+            return new MappedForest(path, channel, position, treeCount, types);
+        }
+    }
+
+    static IOException corrupt(Path path) {
+        return new IOException("Corrupt forest file: " + path);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        return larger.put(buffer);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of forest file");
+            }
+        }
+        buffer.flip();
+    }
+}
+
+// Лес, отображенный из файла ForestFile. Записи читаются прямо из отображенных страниц без создания объектов.
+// Один MappedByteBuffer ограничен 2 ГБ, поэтому файл отображается несколькими кусками по целому числу записей.
+class MappedForest {
+    private static final long RECORDS_PER_CHUNK = (1L << 30) / ForestFile.RECORD_SIZE;
+
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+    private final TreeType[] types;
+    private final Path path;
+
+    MappedForest(Path path, FileChannel channel, long recordsStart, long size, TreeType[] types) throws IOException {
+        this.path = path;
+        this.size = size;
+        this.types = types;
+        int chunkCount = (int) ((size + RECORDS_PER_CHUNK - 1) / RECORDS_PER_CHUNK);
+        chunks = new MappedByteBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            long first = c * RECORDS_PER_CHUNK;
+            long records = Math.min(RECORDS_PER_CHUNK, size - first);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    recordsStart + first * ForestFile.RECORD_SIZE, records * ForestFile.RECORD_SIZE);
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int getX(long index) {
+        return chunk(index).getInt(offset(index));
+    }
+
+    public int getY(long index) {
+        return chunk(index).getInt(offset(index) + 4);
+    }
+
+    public TreeType getType(long index) {
+        return type(chunk(index).getShort(offset(index) + 8));
+    }
+
+    public int getTypeCount() {
+        return types.length;
+    }
+
+    public void forEach(TreeVisitor visitor) {
+        for (MappedByteBuffer chunk : chunks) {
+            int limit = chunk.capacity();
+            for (int offset = 0; offset < limit; offset += ForestFile.RECORD_SIZE) {
+                visitor.visit(chunk.getInt(offset), chunk.getInt(offset + 4), type(chunk.getShort(offset + 8)));
+            }
+        }
+    }
+
+    // Записи не проверяются при открытии, чтобы не читать весь файл, поэтому идентификатор проверяется при чтении
+    private TreeType type(short id) {
+        int typeId = id & 0xFFFF;
+        if (typeId >= types.length) {
+            throw new UncheckedIOException(ForestFile.corrupt(path));
+        }
+        return types[typeId];
+    }
+
+    private MappedByteBuffer chunk(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Tree " + index + " out of bounds for forest of " + size + " trees");
+        }
+        return chunks[(int) (index / RECORDS_PER_CHUNK)];
+    }
+
+    private static int offset(long index) {
+        return (int) (index % RECORDS_PER_CHUNK) * ForestFile.RECORD_SIZE;
+    }
+}
+
+// Сохранение леса в ForestFile, время открытия через отображение в память и полный проход по записям.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.ForestFileBenchmark" -Dexec.args="50000000"
+class ForestFileBenchmark {
+    public static void main(String[] args) throws IOException {
+        int trees = args.length > 0 ? Integer.parseInt(args[0]) : 50_000_000;
+        Path path = Files.createTempFile("forest", ".frst");
+        try {
+            TreeType oak = TreeFactory.getTreeType("Oak", "Green", "Rough");
+            TreeType pine = TreeFactory.getTreeType("Pine", "Dark Green", "Smooth");
+            ColumnarForest forest = new ColumnarForest(trees);
+            for (int i = 0; i < trees; i++) {
+                forest.plantTree(i, -i, (i & 1) == 0 ? oak : pine);
+            }
+
+            long start = System.nanoTime();
+            ForestFile.write(forest, path);
+            double writeSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Wrote %d trees (%d MB) in %.2f s%n", trees, Files.size(path) >> 20, writeSeconds);
+            forest = null;
+
+            start = System.nanoTime();
+            MappedForest mapped = ForestFile.open(path);
+            System.out.printf("Opened in %.3f ms%n", (System.nanoTime() - start) / 1e6);
+
+            long[] checksum = new long[1];
+            start = System.nanoTime();
+            mapped.forEach((treeX, treeY, type) -> checksum[0] += treeX + treeY + (type == oak ? 1 : 0));
+            double scanSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Scanned %d trees in %.2f s (%.1f M trees/s, checksum %d)%n",
+                    mapped.size(), scanSeconds, mapped.size() / scanSeconds / 1e6, checksum[0]);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
+
+// Сравнение памяти: Forest со списком объектов Tree против ColumnarForest.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.ColumnarForestBenchmark" -Dexec.args="10000000"
+class ColumnarForestBenchmark {
+    public static void main(String[] args) {
+        int trees = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        TreeType oak = TreeFactory.getTreeType("Oak", "Green", "Rough");
+        TreeType pine = TreeFactory.getTreeType("Pine", "Dark Green", "Smooth");
+
+        long before = BenchmarkSupport.usedHeap();
+        List<Tree> objects = new ArrayList<>(trees);
+        for (int i = 0; i < trees; i++) {
+            objects.add(new Tree(i, -i, (i & 1) == 0 ? oak : pine));
+        }
+        long objectBytes = BenchmarkSupport.usedHeap() - before;
+
+        before = BenchmarkSupport.usedHeap();
+        ColumnarForest columnar = new ColumnarForest(trees);
+        for (int i = 0; i < trees; i++) {
+            columnar.plantTree(i, -i, (i & 1) == 0 ? oak : pine);
+        }
+        long columnarBytes = BenchmarkSupport.usedHeap() - before;
+
+        long[] sum = new long[1];
+        long start = System.nanoTime();
+        columnar.forEach((treeX, treeY, type) -> sum[0] += treeX - treeY);
+        double iterationMillis = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("List<Tree>:     %6.1f bytes/tree%n", (double) objectBytes / trees);
+        System.out.printf("ColumnarForest: %6.1f bytes/tree%n", (double) columnarBytes / trees);
+        System.out.printf("Iterated %d trees in %.1f ms (checksum %d, %d objects kept alive)%n",
+                columnar.size(), iterationMillis, sum[0], objects.size());
+    }
+}
+
 // Пример использования
 public class FlyweightPattern {
     public static void main(String[] args) {
@@ -124,9 +1310,38 @@ public class FlyweightPattern {
         // Рисуем лес
         forest.draw();
 
+        // Тот же лес в колоночном представлении без объектов Tree
+        ColumnarForest columnarForest = new ColumnarForest();
+        columnarForest.plantTree(10, 20, "Oak", "Green", "Rough");
+        columnarForest.plantTree(30, 40, "Pine", "Dark Green", "Smooth");
+        columnarForest.plantTrees(new int[]{50, 100, 150}, new int[]{60, 120, 160}, 0, 3,
+                TreeFactory.getTreeType("Oak", "Green", "Rough"));
+        columnarForest.draw();
+
+        // Пространственный индекс: отрисовка только видимой области и поиск ближайшего дерева
+        SpatialForest spatialForest = new SpatialForest(columnarForest, 50);
+        spatialForest.plantTree(200, 210, "Pine", "Dark Green", "Smooth");
+        spatialForest.draw(0, 0, 100, 100);
+        int nearest = spatialForest.nearest(190, 190);
+        System.out.println("Nearest tree to (190, 190): (" + columnarForest.getX(nearest) + ", "
+                + columnarForest.getY(nearest) + ")");
+
         // Выводим количество созданных типов деревьев
         System.out.println("\nTotal tree types created: " + TreeFactory.getTreeTypeCount());
+        System.out.println("Flyweight pool hits: " + TreeFactory.getHitCount() + ", misses: " + TreeFactory.getMissCount());
         System.out.println("Memory saved by using Flyweight pattern!");
+
+        // Ограниченный кэш: при открытом наборе комбинаций старые типы вытесняются
+        TreeTypeCache cache = new TreeTypeCache(2, TreeTypeCache.EvictionPolicy.LRU, TreeTypeCache.Retention.STRONG);
+        TreeFactory.setBoundedCache(cache);
+        forest.plantTree(10, 10, "Oak", "Green", "Rough");
+        forest.plantTree(20, 20, "Birch", "White", "Smooth");
+        forest.plantTree(30, 30, "Oak", "Green", "Rough");
+        forest.plantTree(40, 40, "Maple", "Red", "Rough");
+        forest.plantTree(50, 50, "Birch", "White", "Smooth");
+        System.out.printf("%nBounded cache: size %d, hits %d, misses %d, evictions %d, hit rate %.2f%n",
+                cache.size(), cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount(), cache.getHitRate());
+        TreeFactory.setBoundedCache(null);
     }
 }
 /*
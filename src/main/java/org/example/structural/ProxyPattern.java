@@ -1,5 +1,39 @@
 package org.example.structural;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
 /*
     Паттерн Proxy (Заместитель) относится к категории структурных паттернов проектирования и используется для предоставления заместителя или местахранителя для другого объекта,
 чтобы контролировать доступ к нему.
@@ -21,9 +55,45 @@ interface Image {
     void display();
 }
 
+// Прямоугольный фрагмент декодированных пикселей в формате 0xRRGGBB
+class PixelRegion {
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    public PixelRegion(int width, int height, int[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getPixel(int x, int y) {
+        return pixels[y * width + x];
+    }
+}
+
 // Реальная реализация изображения
+// Существующий файл отображается в память через FileChannel.map. Сразу разбирается только заголовок
+// (поддерживается бинарный PPM, P6), пиксели декодируются по запросу, поэтому миниатюра или фрагмент
+// большого файла затрагивают только нужные страницы. Для отсутствующего файла задержка диска имитируется.
 class RealImage implements Image {
+    // Имитация задержки чтения с диска для отсутствующих файлов
+    private static final long LOAD_LATENCY_MILLIS = 50;
+
     private String fileName;
+    private long sizeInBytes;
+    private MappedByteBuffer data;
+    private int width;
+    private int height;
+    private int pixelOffset;
 
     public RealImage(String fileName) {
         this.fileName = fileName;
@@ -32,33 +102,687 @@ class RealImage implements Image {
 
     private void loadFromDisk() {
         System.out.println("Loading image from disk: " + fileName);
+        Path path = Path.of(fileName);
+        if (!Files.exists(path)) {
+            try {
+                Thread.sleep(LOAD_LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            sizeInBytes = channel.size();
+            if (sizeInBytes > Integer.MAX_VALUE) {
+                throw new IOException("Image larger than 2 GB cannot be mapped: " + fileName);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, sizeInBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        parseHeader();
+    }
+
+    // Заголовок PPM: "P6", ширина, высота, максимальное значение (до 255), затем один пробельный символ и RGB-данные
+    private void parseHeader() {
+        if (data.limit() < 2 || data.get(0) != 'P' || data.get(1) != '6') {
+            return;
+        }
+        int[] position = {2};
+        width = nextHeaderNumber(position);
+        height = nextHeaderNumber(position);
+        int maxValue = nextHeaderNumber(position);
+        if (maxValue <= 0 || maxValue > 255) {
+            throw new IllegalStateException("Unsupported PPM max value " + maxValue + ": " + fileName);
+        }
+        pixelOffset = position[0] + 1;
+        if ((long) pixelOffset + (long) width * height * 3 > data.limit()) {
+            throw new IllegalStateException("Truncated PPM image: " + fileName);
+        }
+    }
+
+    private int nextHeaderNumber(int[] position) {
+        int i = position[0];
+        while (i < data.limit()) {
+            byte b = data.get(i);
+            if (b == '#') {
+                while (i < data.limit() && data.get(i) != '\n') {
+                    i++;
+                }
+            } else if (Character.isWhitespace(b)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        int value = 0;
+        int start = i;
+        while (i < data.limit() && data.get(i) >= '0' && data.get(i) <= '9') {
+            value = value * 10 + (data.get(i) - '0');
+            i++;
+        }
+        if (i == start) {
+            throw new IllegalStateException("Malformed PPM header: " + fileName);
+        }
+        position[0] = i;
+        return value;
     }
 
     public void display() {
-        System.out.println("Displaying image: " + fileName);
+        System.out.println("Displaying image: " + fileName + (isDecodable() ? " (" + width + "x" + height + ")" : ""));
+    }
+
+    // Размер файла изображения на диске; 0, если файла нет
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isDecodable() {
+        return width > 0 && height > 0;
+    }
+
+    // Декодирует только строки фрагмента, читая их прямо из отображенного файла
+    public PixelRegion readRegion(int x, int y, int regionWidth, int regionHeight) {
+        checkDecodable();
+        // Проверка без переполнения; после нее фрагмент лежит внутри изображения, а parseHeader уже убедился,
+        // что все пиксели изображения (width * height * 3 байт) помещаются в файл меньше 2 ГБ,
+        // поэтому размеры и смещения ниже укладываются в int
+        Objects.checkFromIndexSize(x, regionWidth, width);
+        Objects.checkFromIndexSize(y, regionHeight, height);
+        int[] pixels = new int[regionWidth * regionHeight];
+        byte[] row = new byte[regionWidth * 3];
+        for (int ry = 0; ry < regionHeight; ry++) {
+            data.get(pixelOffset + ((y + ry) * width + x) * 3, row);
+            for (int rx = 0; rx < regionWidth; rx++) {
+                pixels[ry * regionWidth + rx] = (row[rx * 3] & 0xFF) << 16 | (row[rx * 3 + 1] & 0xFF) << 8 | row[rx * 3 + 2] & 0xFF;
+            }
+        }
+        return new PixelRegion(regionWidth, regionHeight, pixels);
+    }
+
+    // Миниатюра выборкой ближайших пикселей: читаются только выбранные строки файла
+    public PixelRegion thumbnail(int maxSide) {
+        checkDecodable();
+        double scale = Math.min(1.0, (double) maxSide / Math.max(width, height));
+        int thumbWidth = Math.max(1, (int) (width * scale));
+        int thumbHeight = Math.max(1, (int) (height * scale));
+        int[] pixels = new int[thumbWidth * thumbHeight];
+        for (int ty = 0; ty < thumbHeight; ty++) {
+            long rowOffset = pixelOffset + ty * (long) height / thumbHeight * width * 3;
+            for (int tx = 0; tx < thumbWidth; tx++) {
+                int offset = (int) (rowOffset + (tx * (long) width / thumbWidth) * 3);
+                pixels[ty * thumbWidth + tx] = (data.get(offset) & 0xFF) << 16 | (data.get(offset + 1) & 0xFF) << 8
+                        | data.get(offset + 2) & 0xFF;
+            }
+        }
+        return new PixelRegion(thumbWidth, thumbHeight, pixels);
+    }
+
+    private void checkDecodable() {
+        if (!isDecodable()) {
+            throw new IllegalStateException("Image is missing or not a binary PPM: " + fileName);
+        }
+    }
+}
+
+// Открытие большого изображения через отображение в память против полного чтения файла,
+// а также время получения фрагмента и миниатюры.
+// Запуск: mvn exec:java -Dexec.mainClass="org.example.structural.RealImageBenchmark" -Dexec.args="8000"
+class RealImageBenchmark {
+    public static void main(String[] args) throws IOException {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        Path path = Files.createTempFile("image", ".ppm");
+        try {
+            writeGradient(path, side);
+            System.out.println("Generated " + side + "x" + side + " PPM (" + (Files.size(path) >> 20) + " MB)");
+
+            long start = System.nanoTime();
+            byte[] eager = Files.readAllBytes(path);
+            report("read whole file", start);
+
+            start = System.nanoTime();
+            RealImage image = new RealImage(path.toString());
+            report("map + parse header", start);
+
+            start = System.nanoTime();
+            PixelRegion crop = image.readRegion(side / 2, side / 2, 256, 256);
+            report("decode 256x256 crop", start);
+
+            start = System.nanoTime();
+            PixelRegion thumbnail = image.thumbnail(128);
+            report("decode 128px thumbnail", start);
+
+            System.out.printf("(checksum %d)%n", eager.length + crop.getPixel(0, 0) + thumbnail.getPixel(0, 0));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static void writeGradient(Path path, int side) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(("P6\n" + side + " " + side + "\n255\n").getBytes(StandardCharsets.US_ASCII)));
+            ByteBuffer row = ByteBuffer.allocateDirect(side * 3);
+            for (int y = 0; y < side; y++) {
+                row.clear();
+                for (int x = 0; x < side; x++) {
+                    row.put((byte) x).put((byte) y).put((byte) (x ^ y));
+                }
+                row.flip();
+                while (row.hasRemaining()) {
+                    channel.write(row);
+                }
+            }
+        }
+    }
+
+    private static void report(String label, long startNanos) {
+        System.out.printf("%-26s %10.3f ms%n", label, (System.nanoTime() - startNanos) / 1e6);
+    }
+}
+
+// Общий кэш изображений с бюджетом по байтам. При превышении бюджета вытесняется запись с самым давним
+// обращением (LRU) или с наименьшим числом обращений (LFU). Попадание в кэш не берет блокировку:
+// прокси держат ссылку на Entry, а вытеснение только обнуляет в ней изображение.
+// Загрузка идет в режиме single-flight: запись кладется в кэш до начала чтения файла, одновременные
+// запросы того же файла ждут ее загрузку. Запись убирается только после вытеснения или ошибки загрузки.
+class ImageCache {
+    enum EvictionPolicy { LRU, LFU }
+
+    private static final ImageCache SHARED = new ImageCache(256L << 20, EvictionPolicy.LRU, RealImage::getSizeInBytes);
+
+    private final long budgetBytes;
+    private final EvictionPolicy policy;
+    private final ToLongFunction<RealImage> weigher;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private long residentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    public ImageCache(long budgetBytes, EvictionPolicy policy, ToLongFunction<RealImage> weigher) {
+        this.budgetBytes = budgetBytes;
+        this.policy = policy;
+        this.weigher = weigher;
+    }
+
+    public static ImageCache shared() {
+        return SHARED;
+    }
+
+    // Запись для файла, загружая изображение при необходимости. Изображение в возвращенной записи
+    // могло быть уже вытеснено - тогда peek() вернет null и запись нужно запросить снова.
+    public Entry acquire(String fileName) {
+        Entry entry = entries.get(fileName);
+        if (entry != null && entry.get() != null) {
+            return entry;
+        }
+        misses.increment();
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = entries.putIfAbsent(fileName, created);
+            if (entry == null) {
+                return load(fileName, created);
+            }
+        }
+        // Загрузку ведет другой поток
+        try {
+            entry.loaded.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return entry;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public double getAverageLoadMillis() {
+        long loadCount = loads.sum();
+        return loadCount == 0 ? 0 : loadNanos.sum() / 1e6 / loadCount;
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    private Entry load(String fileName, Entry entry) {
+        long start = System.nanoTime();
+        RealImage image;
+        try {
+            image = new RealImage(fileName);
+        } catch (RuntimeException | Error e) {
+            // Следующий запрос начнет загрузку заново, ожидающие получат ту же ошибку
+            entries.remove(fileName, entry);
+            entry.loaded.completeExceptionally(e);
+            throw e;
+        }
+        loadNanos.add(System.nanoTime() - start);
+        loads.increment();
+        synchronized (this) {
+            entry.weight = weigher.applyAsLong(image);
+            entry.image = image;
+            residentBytes += entry.weight;
+            evictOverBudget(entry);
+        }
+        entry.loaded.complete(image);
+        return entry;
+    }
+
+    // Полный просмотр записей выполняется только на пути промаха, который и так ждет загрузку с диска.
+    // Только что добавленная запись не вытесняется, даже если одна превышает бюджет;
+    // записи, которые еще загружаются, места в бюджете не занимают и тоже пропускаются.
+    private void evictOverBudget(Entry keep) {
+        while (residentBytes > budgetBytes) {
+            String victimName = null;
+            Entry victim = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                Entry entry = candidate.getValue();
+                if (entry != keep && entry.image != null && (victim == null || entry.rank() < victim.rank())) {
+                    victimName = candidate.getKey();
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            entries.remove(victimName, victim);
+            victim.image = null;
+            residentBytes -= victim.weight;
+            evictions.increment();
+        }
+    }
+
+    class Entry {
+        // Завершается после публикации изображения или с ошибкой загрузки
+        private final CompletableFuture<RealImage> loaded = new CompletableFuture<>();
+        private volatile RealImage image;
+        // Вес выставляется и читается под блокировкой кэша
+        private long weight;
+        // Счетчики обращений обновляются без блокировок, при гонках возможны потерянные инкременты
+        private volatile long lastAccess = System.nanoTime();
+        private volatile long frequency;
+
+        // Изображение или null, если запись уже вытеснена
+        RealImage get() {
+            RealImage current = image;
+            if (current != null) {
+                hits.increment();
+                lastAccess = System.nanoTime();
+                frequency++;
+            }
+            return current;
+        }
+
+        // То же, но без учета обращения в статистике
+        RealImage peek() {
+            return image;
+        }
+
+        private long rank() {
+            return policy == EvictionPolicy.LRU ? lastAccess : frequency;
+        }
     }
 }
 
 // Прокси для изображения
+// Изображение берется из общего кэша. Прокси хранит только запись кэша, поэтому вытесненное изображение
+// освобождается и прозрачно загружается снова при следующем display(). Попадание обходится без блокировок.
 class ProxyImage implements Image {
-    private RealImage realImage;
+    private final ImageCache cache;
+    private volatile ImageCache.Entry entry;
     private String fileName;
 
     public ProxyImage(String fileName) {
+        this(fileName, ImageCache.shared());
+    }
+
+    public ProxyImage(String fileName, ImageCache cache) {
+        this.fileName = fileName;
+        this.cache = cache;
+    }
+
+    public void display() {
+        ImageCache.Entry current = entry;
+        RealImage image = current != null ? current.get() : null;
+        if (image == null) {
+            synchronized (this) {
+                current = entry;
+                image = current != null ? current.get() : null;
+                // Запись могла быть вытеснена сразу после загрузки другим потоком - тогда берем ее снова
+                while (image == null) {
+                    current = cache.acquire(fileName);
+                    image = current.peek();
+                }
+                entry = current;
+            }
+        }
+        image.display();
+    }
+}
+
+// Предсказатель изображений, которые скоро понадобятся
+interface PrefetchPredictor {
+    List<String> predict(String currentFileName);
+}
+
+// Следующие lookahead изображений галереи после текущего
+class GallerySequencePredictor implements PrefetchPredictor {
+    private final List<String> gallery;
+    private final int lookahead;
+
+    public GallerySequencePredictor(List<String> gallery, int lookahead) {
+        this.gallery = List.copyOf(gallery);
+        this.lookahead = lookahead;
+    }
+
+    public List<String> predict(String currentFileName) {
+        int index = gallery.indexOf(currentFileName);
+        if (index < 0) {
+            return List.of();
+        }
+        return gallery.subList(index + 1, Math.min(index + 1 + lookahead, gallery.size()));
+    }
+}
+
+// Фоновая подгрузка изображений в кэш на ограниченном пуле потоков. Каждый новый набор предсказаний
+// отменяет еще не начатые загрузки из предыдущего набора, которые в новый набор не вошли.
+class ImagePrefetcher implements AutoCloseable {
+    private final ImageCache cache;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, PrefetchTask> pending = new ConcurrentHashMap<>();
+
+    public ImagePrefetcher(ImageCache cache, int maxConcurrentLoads) {
+        this.cache = cache;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrentLoads, maxConcurrentLoads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+                    Thread thread = new Thread(task, "image-prefetch-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public synchronized void prefetch(Collection<String> fileNames) {
+        Set<String> wanted = new HashSet<>(fileNames);
+        boolean cancelled = false;
+        for (PrefetchTask task : pending.values()) {
+            // Уже идущие загрузки не прерываются: их результат может ждать кто-то еще через ImageCache
+            if (!wanted.contains(task.fileName) && task.cancelIfQueued()) {
+                cancelled = true;
+            }
+        }
+        if (cancelled) {
+            executor.purge();
+        }
+        for (String fileName : fileNames) {
+            if (!pending.containsKey(fileName)) {
+                PrefetchTask task = new PrefetchTask(fileName);
+                pending.put(fileName, task);
+                executor.execute(task);
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // Загрузка одного файла. Флаг started решает гонку между запуском и отменой: задачу, которую
+    // поток пула уже взял в работу, отменить нельзя, а отмененная задача не запустится.
+    private class PrefetchTask extends FutureTask<Void> {
+        private final String fileName;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        PrefetchTask(String fileName) {
+            super(() -> cache.acquire(fileName), null);
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void run() {
+            if (started.compareAndSet(false, true)) {
+                super.run();
+            }
+        }
+
+        boolean cancelIfQueued() {
+            return started.compareAndSet(false, true) && cancel(false);
+        }
+
+        // Вызывается после загрузки, ошибки или отмены; снимает с учета только эту задачу,
+        // а не более новую для того же файла
+        @Override
+        protected void done() {
+            pending.remove(fileName, this);
+        }
+    }
+}
+
+// Прокси, который после показа изображения заранее подгружает предсказанные следующие изображения,
+// чтобы их первый display() не ждал загрузку с диска
+class PrefetchingProxyImage implements Image {
+    private final ProxyImage proxy;
+    private final String fileName;
+    private final ImagePrefetcher prefetcher;
+    private final PrefetchPredictor predictor;
+
+    public PrefetchingProxyImage(String fileName, ImageCache cache, ImagePrefetcher prefetcher,
+                                 PrefetchPredictor predictor) {
+        this.proxy = new ProxyImage(fileName, cache);
         this.fileName = fileName;
+        this.prefetcher = prefetcher;
+        this.predictor = predictor;
     }
 
     public void display() {
-        if (realImage == null) {
-            realImage = new RealImage(fileName);
+        proxy.display();
+        prefetcher.prefetch(predictor.predict(fileName));
+    }
+}
+
+// Гистограмма задержек в духе HDR: логарифмические корзины по степеням двойки, каждая поделена
+// на SUB_BUCKETS линейных частей (погрешность около 12%). Счетчики разнесены по полосам,
+// полоса выбирается по потоку, чтобы параллельные вызовы не конкурировали за одну ячейку.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2);
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    public void record(long nanos) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        stripes[stripe].incrementAndGet(bucketOf(Math.max(nanos, 0)));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (long bucketCount : merge()) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    // Верхняя граница корзины, в которую попадает заданный процентиль, в наносекундах
+    public long getPercentile(double percentile) {
+        long[] counts = merge();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= Math.max(threshold, 1)) {
+                return upperBoundOf(bucket);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    // Значения меньше SUB_BUCKETS попадают в свои корзины точно, остальные - по старшим битам
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private long[] merge() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts[bucket] += stripe.get(bucket);
+            }
+        }
+        return counts;
+    }
+}
+
+// Метрики вызовов одного инструментированного объекта: гистограмма на каждый метод интерфейса
+class MethodMetrics {
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    LatencyHistogram histogram(String method) {
+        return histograms.computeIfAbsent(method, name -> new LatencyHistogram());
+    }
+
+    public Map<String, LatencyHistogram> getHistograms() {
+        return Map.copyOf(histograms);
+    }
+
+    public void print() {
+        histograms.forEach((method, histogram) -> System.out.printf(
+                "  %-24s calls %8d  p50 %6d ns  p99 %6d ns  max %6d ns%n", method, histogram.getCount(),
+                histogram.getPercentile(50), histogram.getPercentile(99), histogram.getPercentile(100)));
+    }
+}
+
+// Фабрика динамических заместителей, которая оборачивает любой интерфейс проекта (Image, Coffee, Device,
+// SquareRootCalculator...) и считает число вызовов и задержки каждого метода. Гистограммы методов
+// находятся при создании прокси, поэтому на вызове остается поиск в неизменяемой карте и два System.nanoTime().
+class InstrumentingProxyFactory {
+    @SuppressWarnings("unchecked")
+    public static <T> T instrument(Class<T> type, T target, MethodMetrics metrics) {
+        Map<Method, LatencyHistogram> byMethod = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            byMethod.put(method, metrics.histogram(method.getName() + signatureOf(method)));
+        }
+        InvocationHandler handler = (proxy, method, args) -> {
+            LatencyHistogram histogram = byMethod.get(method);
+            if (histogram == null) {
+                // Методы Object (toString, hashCode, equals) вызываются без учета
+                return invokeTarget(target, method, args);
+            }
+            long start = System.nanoTime();
+            try {
+                return invokeTarget(target, method, args);
+            } finally {
+                histogram.record(System.nanoTime() - start);
+            }
+        };
+        return (T) java.lang.reflect.Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String signatureOf(Method method) {
+        StringBuilder signature = new StringBuilder("(");
+        for (Class<?> parameter : method.getParameterTypes()) {
+            if (signature.length() > 1) {
+                signature.append(", ");
+            }
+            signature.append(parameter.getSimpleName());
+        }
+        return signature.append(')').toString();
+    }
+}
+
+// Написанный вручную инструментированный заместитель, для сравнения с динамическим
+class InstrumentedImage implements Image {
+    private final Image target;
+    private final LatencyHistogram histogram;
+
+    InstrumentedImage(Image target, MethodMetrics metrics) {
+        this.target = target;
+        this.histogram = metrics.histogram("display()");
+    }
+
+    public void display() {
+        long start = System.nanoTime();
+        try {
+            target.display();
+        } finally {
+            histogram.record(System.nanoTime() - start);
         }
-        realImage.display();
     }
 }
 
 // Пример использования
 public class ProxyPattern {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         // Создание прокси-объекта
         Image image = new ProxyImage("test.jpg");
 
@@ -69,6 +793,57 @@ public class ProxyPattern {
         System.out.println("\nSecond call to display():");
         // При втором вызове изображение уже загружено
         image.display();
+
+        // Несколько потоков и прокси одного файла: изображение загружается с диска один раз
+        System.out.println("\nConcurrent calls to display():");
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Image proxy = new ProxyImage("shared.jpg");
+            Thread thread = new Thread(proxy::display);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Кэш на два изображения: вытесненное изображение загружается снова при следующем display()
+        System.out.println("\nBounded image cache:");
+        ImageCache cache = new ImageCache(2, ImageCache.EvictionPolicy.LRU, loaded -> 1);
+        Image first = new ProxyImage("first.jpg", cache);
+        Image second = new ProxyImage("second.jpg", cache);
+        Image third = new ProxyImage("third.jpg", cache);
+        first.display();
+        second.display();
+        first.display();
+        third.display();
+        second.display();
+        System.out.printf("Hit ratio %.2f, average load %.1f ms, resident %d, evictions %d%n",
+                cache.getHitRatio(), cache.getAverageLoadMillis(), cache.getResidentBytes(), cache.getEvictionCount());
+
+        // Предварительная загрузка следующих изображений галереи в фоне
+        System.out.println("\nPrefetching gallery:");
+        List<String> gallery = List.of("gallery1.jpg", "gallery2.jpg", "gallery3.jpg", "gallery4.jpg");
+        ImageCache galleryCache = new ImageCache(16, ImageCache.EvictionPolicy.LRU, loaded -> 1);
+        PrefetchPredictor predictor = new GallerySequencePredictor(gallery, 2);
+        try (ImagePrefetcher prefetcher = new ImagePrefetcher(galleryCache, 2)) {
+            for (String fileName : gallery) {
+                long start = System.nanoTime();
+                new PrefetchingProxyImage(fileName, galleryCache, prefetcher, predictor).display();
+                System.out.printf("  %s shown in %.1f ms%n", fileName, (System.nanoTime() - start) / 1e6);
+                // Пользователь рассматривает изображение, пока следующие загружаются
+                Thread.sleep(100);
+            }
+        }
+
+        // Динамический заместитель со статистикой вызовов
+        System.out.println("\nInstrumented image:");
+        MethodMetrics metrics = new MethodMetrics();
+        Image instrumented = InstrumentingProxyFactory.instrument(Image.class, new ProxyImage("test.jpg"), metrics);
+        for (int i = 0; i < 3; i++) {
+            instrumented.display();
+        }
+        metrics.print();
     }
 }
 /*В этом примере ProxyImage является прокси-объектом для RealImage, который загружает изображение только при первом вызове метода display().
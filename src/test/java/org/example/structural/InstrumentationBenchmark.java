@@ -0,0 +1,67 @@
+package org.example.structural;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Стоимость инструментирования горячего вызова: прямой вызов, ручной заместитель, пустой
+// java.lang.reflect.Proxy и инструментирующий динамический заместитель. Целевой объект только увеличивает
+// счетчик, чтобы измерялись накладные расходы заместителя.
+// Запуск: mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+//         -Dexec.args="-cp %classpath org.openjdk.jmh.Main InstrumentationBenchmark"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstrumentationBenchmark {
+    private long displayed;
+    private Image direct;
+    private Image handWritten;
+    private Image passThrough;
+    private Image instrumented;
+
+    @Setup
+    public void createProxies() {
+        direct = () -> displayed++;
+        handWritten = new InstrumentedImage(direct, new MethodMetrics());
+        passThrough = (Image) Proxy.newProxyInstance(Image.class.getClassLoader(), new Class<?>[]{Image.class},
+                (proxy, method, methodArgs) -> InstrumentingProxyFactory.invokeTarget(direct, method, methodArgs));
+        instrumented = InstrumentingProxyFactory.instrument(Image.class, direct, new MethodMetrics());
+    }
+
+    // Счетчик возвращается, чтобы JIT не мог выбросить вызов
+    @Benchmark
+    public long directCall() {
+        direct.display();
+        return displayed;
+    }
+
+    @Benchmark
+    public long handWrittenProxy() {
+        handWritten.display();
+        return displayed;
+    }
+
+    @Benchmark
+    public long reflectProxyPassThrough() {
+        passThrough.display();
+        return displayed;
+    }
+
+    @Benchmark
+    public long instrumentingProxy() {
+        instrumented.display();
+        return displayed;
+    }
+}
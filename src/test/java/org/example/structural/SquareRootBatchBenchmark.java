@@ -0,0 +1,102 @@
+package org.example.structural;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Скалярный путь (вызов через интерфейс на каждый элемент) против пакетного API на массивах и прямых буферах.
+// Одна операция - расчет корней всего массива из size чисел.
+// Запуск: mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+//         -Dexec.args="-cp %classpath org.openjdk.jmh.Main SquareRootBatchBenchmark"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SquareRootBatchBenchmark {
+    @Param({"1024", "16384", "1048576"})
+    private int size;
+
+    private SquareRootCalculator calculator;
+    private double[] numbers;
+    private double[] roots;
+    private DoubleBuffer directNumbers;
+    private DoubleBuffer directRoots;
+
+    @Setup
+    public void prepare() {
+        calculator = new CalculatorAdapter(new ThirdPartyCalculator());
+        Random random = new Random(42);
+        numbers = new double[size];
+        for (int i = 0; i < size; i++) {
+            numbers[i] = random.nextDouble() * 1_000_000;
+        }
+        roots = new double[size];
+        directNumbers = ByteBuffer.allocateDirect(size * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        directNumbers.put(numbers).flip();
+        directRoots = ByteBuffer.allocateDirect(size * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+
+        // В реальном приложении у интерфейса несколько реализаций: прогоняем через scalarPass другие,
+        // чтобы точка вызова в нем стала мегаморфной
+        SquareRootCalculator[] others = {Math::sqrt, number -> StrictMath.sqrt(number), number -> Math.pow(number, 0.5)};
+        for (int i = 0; i < 20_000; i++) {
+            scalarPass(others[i % others.length], numbers, roots);
+        }
+
+        double[] expected = scalarPass(calculator, numbers, new double[size]);
+        calculator.calculateSquareRoots(directNumbers.clear(), directRoots.clear());
+        double[] direct = new double[size];
+        directRoots.flip().get(direct);
+        if (!Arrays.equals(expected, batch()) || !Arrays.equals(expected, direct)) {
+            throw new IllegalStateException("Batch roots differ from the scalar path");
+        }
+    }
+
+    @Benchmark
+    public double[] scalarInlinedCallSite() {
+        SquareRootCalculator calculator = this.calculator;
+        for (int i = 0; i < numbers.length; i++) {
+            roots[i] = calculator.calculateSquareRoot(numbers[i]);
+        }
+        return roots;
+    }
+
+    @Benchmark
+    public double[] scalarMegamorphicCallSite() {
+        return scalarPass(calculator, numbers, roots);
+    }
+
+    @Benchmark
+    public double[] batch() {
+        calculator.calculateSquareRoots(numbers, roots);
+        return roots;
+    }
+
+    @Benchmark
+    public DoubleBuffer batchDirectBuffer() {
+        calculator.calculateSquareRoots(directNumbers.clear(), directRoots.clear());
+        return directRoots;
+    }
+
+    private static double[] scalarPass(SquareRootCalculator calculator, double[] numbers, double[] roots) {
+        for (int i = 0; i < numbers.length; i++) {
+            roots[i] = calculator.calculateSquareRoot(numbers[i]);
+        }
+        return roots;
+    }
+}
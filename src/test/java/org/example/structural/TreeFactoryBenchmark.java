@@ -0,0 +1,73 @@
+package org.example.structural;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Путь попадания в пул легковесов: TreeFactory против synchronized HashMap с составным строковым ключом.
+// Все потоки обращаются к общему пулу, поэтому видна и цена блокировки.
+// Запуск: mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+//         -Dexec.args="-cp %classpath org.openjdk.jmh.Main TreeFactoryBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class TreeFactoryBenchmark {
+    private static final String[] NAMES = {"Oak", "Pine", "Birch", "Maple"};
+    private static final String[] COLORS = {"Green", "Dark Green", "Yellow", "Red"};
+    private static final String[] TEXTURES = {"Rough", "Smooth"};
+
+    private final Map<String, TreeType> legacyTypes = new HashMap<>();
+
+    // Пулы заполняются заранее, чтобы измерять только путь попадания
+    @Setup
+    public void fillPools() {
+        for (String name : NAMES) {
+            for (String color : COLORS) {
+                for (String texture : TEXTURES) {
+                    TreeFactory.getTreeType(name, color, texture);
+                    legacyGet(name, color, texture);
+                }
+            }
+        }
+    }
+
+    // Свой счетчик у каждого потока перебирает все 32 комбинации
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public TreeType synchronizedHashMap(Cursor cursor) {
+        int k = cursor.next++;
+        return legacyGet(NAMES[k & 3], COLORS[(k >> 2) & 3], TEXTURES[(k >> 4) & 1]);
+    }
+
+    @Benchmark
+    public TreeType treeFactoryPool(Cursor cursor) {
+        int k = cursor.next++;
+        return TreeFactory.getTreeType(NAMES[k & 3], COLORS[(k >> 2) & 3], TEXTURES[(k >> 4) & 1]);
+    }
+
+    private TreeType legacyGet(String name, String color, String texture) {
+        String key = name + "_" + color + "_" + texture;
+        synchronized (legacyTypes) {
+            return legacyTypes.computeIfAbsent(key, k -> new TreeType(name, color, texture));
+        }
+    }
+}